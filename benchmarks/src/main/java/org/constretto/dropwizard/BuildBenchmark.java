@@ -0,0 +1,50 @@
+package org.constretto.dropwizard;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import io.dropwizard.configuration.ConfigurationException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures ConstrettoConfigurationFactory.build end-to-end: rewrite, parse, filter, bind and validate.
+ *
+ * @author kjeivers
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class BuildBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Factory {
+        @Param({"STREAMING", "TREE", "PARALLEL"})
+        public ConstrettoConfigurationFactory.FilterMode filterMode;
+
+        ConstrettoConfigurationFactory<JsonNode> factory;
+
+        @Setup
+        public void setUp(ConfigurationState state) {
+            factory = state.factory(filterMode);
+        }
+    }
+
+    @Benchmark
+    public JsonNode build(ConfigurationState state, Factory factory) throws IOException, ConfigurationException {
+        return factory.factory.build(state.sourceProvider, "config.yml");
+    }
+
+}
@@ -0,0 +1,118 @@
+package org.constretto.dropwizard;
+
+import java.util.Random;
+
+/**
+ * Generates constretto-tagged YAML configurations of a given shape, deterministically for a given seed.
+ *
+ * Each top-level section is a tree of nested structs with a fan-out of three. A share of the keys
+ * get tagged variants, half of them with the '@' syntax and half of them with the '.' syntax,
+ * and every struct at the bottom level holds a list with tagged and untagged elements.
+ *
+ * @author kjeivers
+ */
+final class ConfigurationGenerator {
+
+    /**
+     * The number of distinct tags used in the generated configurations
+     */
+    static final int TAG_COUNT = 8;
+
+    private static final int FAN_OUT = 3;
+
+    private final int targetBytes;
+    private final int depth;
+    private final double taggedRatio;
+    private final int listSize;
+    private final Random random;
+    private final StringBuilder yml = new StringBuilder();
+
+    /**
+     * @param targetBytes The approximate size of the configuration
+     * @param depth The nesting depth of the sections
+     * @param taggedRatio The share of keys and list elements that have tagged variants
+     * @param listSize The number of elements in each list
+     * @param seed The seed of the generator
+     */
+    private ConfigurationGenerator(int targetBytes, int depth, double taggedRatio, int listSize, long seed) {
+        this.targetBytes = targetBytes;
+        this.depth = depth;
+        this.taggedRatio = taggedRatio;
+        this.listSize = listSize;
+        this.random = new Random(seed);
+    }
+
+    /**
+     * @return A constretto-tagged YAML configuration of about targetBytes
+     */
+    static String generate(int targetBytes, int depth, double taggedRatio, int listSize) {
+        return new ConfigurationGenerator(targetBytes, depth, taggedRatio, listSize, 42).generate();
+    }
+
+    /**
+     * @param count The number of active tags
+     * @return The first count tags used in the generated configurations
+     */
+    static String[] tags(int count) {
+        String[] tags = new String[count];
+        for (int i = 0; i < count; i++) {
+            tags[i] = tag(i);
+        }
+        return tags;
+    }
+
+    private String generate() {
+        for (int section = 0; !full(); section++) {
+            yml.append("section").append(section).append(":\n");
+            struct(1, "  ");
+        }
+        return yml.toString();
+    }
+
+    private void struct(int level, String indent) {
+        for (int i = 0; i < FAN_OUT && !full(); i++) {
+            if (level < depth) {
+                yml.append(indent).append("struct").append(i).append(":\n");
+                struct(level + 1, indent + "  ");
+            } else {
+                scalar(indent, "key" + i);
+            }
+        }
+        if (level == depth && listSize > 0 && !full()) {
+            list(indent);
+        }
+    }
+
+    private void scalar(String indent, String key) {
+        yml.append(indent).append(key).append(": ").append(value()).append('\n');
+        if (random.nextDouble() < taggedRatio) {
+            yml.append(indent).append(random.nextBoolean() ? '@' : '.').append(tag(random.nextInt(TAG_COUNT)))
+                    .append('.').append(key).append(": ").append(value()).append('\n');
+        }
+    }
+
+    private void list(String indent) {
+        yml.append(indent).append("list:\n");
+        for (int i = 0; i < listSize; i++) {
+            if (random.nextDouble() < taggedRatio) {
+                yml.append(indent).append(random.nextBoolean() ? "- @" : "- .").append(tag(random.nextInt(TAG_COUNT))).append(":\n");
+                yml.append(indent).append("  name: ").append(value()).append('\n');
+            } else {
+                yml.append(indent).append("- name: ").append(value()).append('\n');
+            }
+        }
+    }
+
+    private String value() {
+        return "value" + random.nextInt(1000000);
+    }
+
+    private boolean full() {
+        return yml.length() >= targetBytes;
+    }
+
+    private static String tag(int index) {
+        return "tag" + index;
+    }
+
+}
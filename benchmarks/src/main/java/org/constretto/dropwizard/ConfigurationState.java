@@ -0,0 +1,101 @@
+package org.constretto.dropwizard;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import com.google.common.io.ByteStreams;
+import io.dropwizard.configuration.ConfigurationSourceProvider;
+import io.dropwizard.jackson.Jackson;
+import io.dropwizard.jersey.validation.Validators;
+import org.constretto.resolver.ConfigurationContextResolver;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A generated configuration for each combination of the parameters, shared by all benchmark threads.
+ *
+ * @author kjeivers
+ */
+@State(Scope.Benchmark)
+public class ConfigurationState {
+
+    /**
+     * The approximate size of the configuration in bytes (1 KB to 10 MB)
+     */
+    @Param({"1024", "102400", "1048576", "10485760"})
+    public int size;
+
+    /**
+     * The nesting depth of the configuration
+     */
+    @Param({"2", "6"})
+    public int depth;
+
+    /**
+     * The share of keys and list elements that have tagged variants
+     */
+    @Param({"0.1", "0.5"})
+    public double taggedRatio;
+
+    /**
+     * The number of elements in each list
+     */
+    @Param({"0", "16"})
+    public int listSize;
+
+    /**
+     * The number of active tags, out of ConfigurationGenerator.TAG_COUNT
+     */
+    @Param({"1", "4"})
+    public int activeTags;
+
+    ObjectMapper mapper;
+    YAMLFactory yamlFactory;
+    byte[] source;
+    byte[] rewritten;
+    JsonNode tree;
+    List<String> tags;
+    ConfigurationSourceProvider sourceProvider;
+    ConstrettoConfigurationIndex index;
+
+    @Setup
+    public void setUp() throws IOException {
+        mapper = Jackson.newObjectMapper();
+        yamlFactory = new YAMLFactory();
+        source = ConfigurationGenerator.generate(size, depth, taggedRatio, listSize).getBytes(StandardCharsets.UTF_8);
+        sourceProvider = new ConstrettoConfigurationProvider(new ConfigurationSourceProvider() {
+            @Override
+            public InputStream open(String path) {
+                return new ByteArrayInputStream(source);
+            }
+        });
+        rewritten = ByteStreams.toByteArray(sourceProvider.open("config.yml"));
+        tree = mapper.readTree(yamlFactory.createParser(rewritten));
+        tags = Arrays.asList(ConfigurationGenerator.tags(activeTags));
+        index = ConstrettoConfigurationIndex.of(tree);
+    }
+
+    /**
+     * @param filterMode How the factory filters the configuration
+     * @return A factory binding the configuration to a JsonNode, with the active tags of this state
+     */
+    ConstrettoConfigurationFactory<JsonNode> factory(ConstrettoConfigurationFactory.FilterMode filterMode) {
+        return new ConstrettoConfigurationFactory<>(JsonNode.class, Validators.newValidator(), mapper, "dw",
+                new ConfigurationContextResolver() {
+                    @Override
+                    public List<String> getTags() {
+                        return tags;
+                    }
+                }).withFilterMode(filterMode);
+    }
+
+}
@@ -0,0 +1,70 @@
+package org.constretto.dropwizard;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the tag filter on the rewritten source: filtering a parsed tree sequentially and in parallel,
+ * parsing and filtering the tree, filtering the token stream while parsing, and resolving the tags
+ * from a ConstrettoConfigurationIndex.
+ *
+ * @author kjeivers
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FilterBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Factory {
+        ConstrettoConfigurationFactory<JsonNode> factory;
+
+        @Setup
+        public void setUp(ConfigurationState state) {
+            factory = state.factory(ConstrettoConfigurationFactory.FilterMode.TREE);
+        }
+    }
+
+    @Benchmark
+    public JsonNode treeFilter(ConfigurationState state, Factory factory) {
+        return factory.factory.removeInactiveElements(state.tree, state.tags);
+    }
+
+    @Benchmark
+    public JsonNode parallelFilter(ConfigurationState state) {
+        return new ConstrettoParallelTreeFilter(ConstrettoTags.of(state.tags), ConstrettoParallelTreeFilter.DEFAULT_THRESHOLD,
+                ForkJoinPool.commonPool()).filter(state.tree);
+    }
+
+    @Benchmark
+    public JsonNode treeParseAndFilter(ConfigurationState state, Factory factory) throws IOException {
+        JsonNode tree = state.mapper.readTree(state.yamlFactory.createParser(state.rewritten));
+        return factory.factory.removeInactiveElements(tree, state.tags);
+    }
+
+    @Benchmark
+    public JsonNode streamingParseAndFilter(ConfigurationState state) throws IOException {
+        return state.mapper.readTree(new ConstrettoTagFilteringParser(state.yamlFactory.createParser(state.rewritten), state.tags));
+    }
+
+    @Benchmark
+    public JsonNode indexResolve(ConfigurationState state) {
+        return state.index.resolve(state.tags);
+    }
+
+}
@@ -0,0 +1,46 @@
+package org.constretto.dropwizard;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the '@' rewrite of ConstrettoConfigurationProvider.open, reading the source through a reused buffer.
+ *
+ * @author kjeivers
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RewriteBenchmark {
+
+    @State(Scope.Thread)
+    public static class Buffer {
+        final byte[] bytes = new byte[8192];
+    }
+
+    @Benchmark
+    public long open(ConfigurationState state, Buffer buffer) throws IOException {
+        long count = 0;
+        try (InputStream input = state.sourceProvider.open("config.yml")) {
+            int n;
+            while ((n = input.read(buffer.bytes)) != -1) {
+                count += n;
+            }
+        }
+        return count;
+    }
+
+}
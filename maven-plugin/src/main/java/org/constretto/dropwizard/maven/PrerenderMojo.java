@@ -0,0 +1,97 @@
+package org.constretto.dropwizard.maven;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import io.dropwizard.configuration.FileConfigurationSourceProvider;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.constretto.dropwizard.ConstrettoPrerenderer;
+import org.constretto.dropwizard.ConstrettoSourceFormat;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Locale;
+import java.util.TreeSet;
+
+/**
+ * Pre-renders a constretto-tagged configuration for each of the declared tag sets, so that the application
+ * loads a configuration that is already filtered for its tags.
+ *
+ * Each tag set is a comma-separated list of tags. The configuration 'config.yml' rendered for the tags
+ * 'production,eu' is written as 'config-eu-production.yml' (or '.smile'); an empty tag set is written
+ * as 'config-default.yml'.
+ *
+ * @author kjeivers
+ */
+@Mojo(name = "prerender", defaultPhase = LifecyclePhase.GENERATE_RESOURCES, threadSafe = true)
+public class PrerenderMojo extends AbstractMojo {
+
+    /**
+     * The constretto-tagged configuration
+     */
+    @Parameter(property = "constretto.source", required = true)
+    private File source;
+
+    /**
+     * The directory to write the pre-rendered configurations to
+     */
+    @Parameter(property = "constretto.outputDirectory", defaultValue = "${project.build.outputDirectory}")
+    private File outputDirectory;
+
+    /**
+     * The tag sets to render the configuration for, each a comma-separated list of tags
+     */
+    @Parameter(required = true)
+    private List<String> tagSets;
+
+    /**
+     * The format of the pre-rendered configurations: YAML or SMILE
+     */
+    @Parameter(property = "constretto.format", defaultValue = "YAML")
+    private String format;
+
+    @Override
+    public void execute() throws MojoExecutionException {
+        ConstrettoSourceFormat outputFormat = outputFormat();
+        if (!outputDirectory.isDirectory() && !outputDirectory.mkdirs()) {
+            throw new MojoExecutionException("Unable to create " + outputDirectory);
+        }
+        ConstrettoPrerenderer prerenderer = new ConstrettoPrerenderer();
+        for (String tagSet : tagSets) {
+            TreeSet<String> tags = new TreeSet<>(Splitter.on(',').trimResults().omitEmptyStrings().splitToList(tagSet));
+            File target = new File(outputDirectory, fileName(tags, outputFormat));
+            try (OutputStream output = new FileOutputStream(target)) {
+                prerenderer.write(prerenderer.render(new FileConfigurationSourceProvider(), source.getPath(), tags),
+                        output, outputFormat);
+            } catch (IOException | RuntimeException e) {
+                throw new MojoExecutionException("Unable to pre-render " + source + " for the tags " + tags, e);
+            }
+            getLog().info("Pre-rendered " + source.getName() + " for the tags " + tags + " to " + target);
+        }
+    }
+
+    private ConstrettoSourceFormat outputFormat() throws MojoExecutionException {
+        String name = format.toUpperCase(Locale.ENGLISH);
+        if (ConstrettoSourceFormat.YAML.name().equals(name)) {
+            return ConstrettoSourceFormat.YAML;
+        } else if (ConstrettoSourceFormat.SMILE.name().equals(name)) {
+            return ConstrettoSourceFormat.SMILE;
+        }
+        throw new MojoExecutionException("Unsupported format " + format + ", expected YAML or SMILE");
+    }
+
+    private String fileName(TreeSet<String> tags, ConstrettoSourceFormat outputFormat) {
+        String name = source.getName();
+        int dot = name.lastIndexOf('.');
+        String baseName = dot > 0 ? name.substring(0, dot) : name;
+        String suffix = tags.isEmpty() ? "default" : Joiner.on('-').join(tags);
+        return baseName + "-" + suffix + (outputFormat == ConstrettoSourceFormat.SMILE ? ".smile" : ".yml");
+    }
+
+}
@@ -0,0 +1,110 @@
+package org.constretto.dropwizard.maven;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.constretto.dropwizard.ConstrettoPrerenderer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * @author kjeivers
+ */
+public class PrerenderMojoTest {
+
+    File outputDirectory;
+    PrerenderMojo mojo;
+
+    @Before
+    public void setup() throws Exception {
+        outputDirectory = Files.createTempDirectory("constretto-prerender").toFile();
+        mojo = new PrerenderMojo();
+        set("source", new File(PrerenderMojoTest.class.getResource("/config.yml").toURI()));
+        set("outputDirectory", new File(outputDirectory, "classes"));
+        set("tagSets", Arrays.asList("production, eu", ""));
+        set("format", "yaml");
+    }
+
+    @After
+    public void cleanup() {
+        File[] classes = new File(outputDirectory, "classes").listFiles();
+        for (File file : classes == null ? new File[0] : classes) {
+            file.delete();
+        }
+        new File(outputDirectory, "classes").delete();
+        outputDirectory.delete();
+    }
+
+    @Test
+    public void testRendersEachTagSet() throws Exception {
+        mojo.execute();
+        JsonNode production = read("config-eu-production.yml", new YAMLFactory());
+        assertThat(production.get("server").get("port").asInt()).isEqualTo(80);
+        assertThat(production.get("region").asText()).isEqualTo("eu-west");
+        assertThat(production.get(ConstrettoPrerenderer.MARKER).toString()).isEqualTo("[\"eu\",\"production\"]");
+        JsonNode defaults = read("config-default.yml", new YAMLFactory());
+        assertThat(defaults.get("server").get("port").asInt()).isEqualTo(8080);
+        assertThat(defaults.get("region").asText()).isEqualTo("default");
+    }
+
+    @Test
+    public void testRendersSmile() throws Exception {
+        set("format", "SMILE");
+        mojo.execute();
+        JsonNode production = read("config-eu-production.smile", new SmileFactory());
+        assertThat(production.get("server").get("port").asInt()).isEqualTo(80);
+    }
+
+    @Test
+    public void testUnsupportedFormatFails() throws Exception {
+        set("format", "CBOR");
+        try {
+            mojo.execute();
+            fail("Expected MojoExecutionException");
+        } catch (MojoExecutionException e) {
+            assertThat(e.getMessage()).contains("Unsupported format CBOR");
+        }
+    }
+
+    @Test
+    public void testMissingSourceFails() throws Exception {
+        set("source", new File(outputDirectory, "missing.yml"));
+        try {
+            mojo.execute();
+            fail("Expected MojoExecutionException");
+        } catch (MojoExecutionException e) {
+            assertThat(e.getMessage()).contains("missing.yml");
+        }
+    }
+
+    private JsonNode read(String name, JsonFactory format) throws IOException {
+        try (InputStream input = new FileInputStream(new File(new File(outputDirectory, "classes"), name))) {
+            return new ObjectMapper().readTree(format.createParser(input));
+        }
+    }
+
+    /**
+     * Sets a parameter the way Maven injects it
+     */
+    private void set(String name, Object value) throws ReflectiveOperationException {
+        Field field = PrerenderMojo.class.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(mojo, value);
+    }
+
+}
@@ -0,0 +1,151 @@
+package org.constretto.dropwizard;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An InputStream that rewrites a leading '@' (or '- @') on each line to '.' as the bytes pass through.
+ *
+ * Only ASCII bytes are inspected, so any ASCII-compatible encoding (such as UTF-8) passes through
+ * unchanged apart from the rewritten '@' characters. Line terminators and all other content are
+ * left as they are.
+ *
+ * When a build is recorded on the reading thread, the time spent reading the underlying source
+ * and rewriting the bytes is added to the READ and REWRITE phases of the recording.
+ *
+ * @author kjeivers
+ */
+class ConstrettoAtSignInputStream extends FilterInputStream {
+
+    /**
+     * Only whitespace seen since the start of the line
+     */
+    private static final int LINE_START = 0;
+    /**
+     * Only whitespace and a single '-' seen since the start of the line
+     */
+    private static final int AFTER_DASH = 1;
+    /**
+     * Past the point where a tag may start; wait for the next line
+     */
+    private static final int REST_OF_LINE = 2;
+
+    private int state = LINE_START;
+
+    ConstrettoAtSignInputStream(InputStream in) {
+        super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = in.read();
+        return b == -1 ? -1 : rewrite((byte) b) & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        ConstrettoConfigurationMetrics.Recording recording = ConstrettoConfigurationMetrics.current();
+        if (recording == null) {
+            int n = in.read(b, off, len);
+            if (n > 0) {
+                rewrite(b, off, off + n);
+            }
+            return n;
+        }
+        long startAllocated = ConstrettoConfigurationMetrics.allocatedBytes();
+        long start = System.nanoTime();
+        int n = in.read(b, off, len);
+        long read = System.nanoTime();
+        long readAllocated = ConstrettoConfigurationMetrics.allocatedBytes();
+        recording.add(ConstrettoConfigurationMetrics.Phase.READ, read - start, readAllocated - startAllocated);
+        if (n > 0) {
+            rewrite(b, off, off + n);
+            recording.add(ConstrettoConfigurationMetrics.Phase.REWRITE, System.nanoTime() - read, 0);
+            recording.addSourceBytes(n);
+        }
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        // skipped content must still pass through the state machine
+        byte[] buffer = new byte[(int) Math.min(n, 8192)];
+        long skipped = 0;
+        while (skipped < n) {
+            int count = read(buffer, 0, (int) Math.min(n - skipped, buffer.length));
+            if (count == -1) {
+                break;
+            }
+            skipped += count;
+        }
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public synchronized void mark(int readlimit) {
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        throw new IOException("mark/reset not supported");
+    }
+
+    /**
+     * Rewrites the bytes in place. Only the start of each line is inspected byte by byte;
+     * the rest of the line is forwarded with a scan for the next line terminator,
+     * so a source without '@' tags is passed through unchanged.
+     *
+     * @param b The buffer
+     * @param from The first index to rewrite
+     * @param to The end index (exclusive)
+     */
+    private void rewrite(byte[] b, int from, int to) {
+        int i = from;
+        while (i < to) {
+            if (state == REST_OF_LINE) {
+                while (i < to && b[i] != '\n' && b[i] != '\r') {
+                    i++;
+                }
+                if (i == to) {
+                    return;
+                }
+            }
+            b[i] = rewrite(b[i]);
+            i++;
+        }
+    }
+
+    /**
+     * @param b The next byte of the source
+     * @return The byte to emit; '.' if b is a leading '@', otherwise b
+     */
+    private byte rewrite(byte b) {
+        if (b == '\n' || b == '\r') {
+            state = LINE_START;
+        } else if (state != REST_OF_LINE) {
+            if (b == '@') {
+                state = REST_OF_LINE;
+                return '.';
+            } else if (b == '-' && state == LINE_START) {
+                state = AFTER_DASH;
+            } else if (!isWhitespace(b)) {
+                state = REST_OF_LINE;
+            }
+        }
+        return b;
+    }
+
+    /**
+     * The same characters as '\s' in a regular expression, except the line terminators
+     */
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == 0x0B || b == '\f';
+    }
+
+}
@@ -2,10 +2,25 @@ package org.constretto.dropwizard;
 
 import io.dropwizard.Bundle;
 import io.dropwizard.Configuration;
+import io.dropwizard.configuration.ConfigurationSourceProvider;
+import io.dropwizard.configuration.EnvironmentVariableLookup;
+import io.dropwizard.lifecycle.Managed;
 import io.dropwizard.setup.Bootstrap;
 import io.dropwizard.setup.Environment;
+import org.apache.commons.lang3.text.StrLookup;
 import org.constretto.internal.resolver.DefaultConfigurationContextResolver;
 import org.constretto.resolver.ConfigurationContextResolver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
  * Adding this bundle provides support for constretto-based filtering of configuration file.
@@ -14,7 +29,25 @@ import org.constretto.resolver.ConfigurationContextResolver;
  */
 public class ConstrettoBundle<T extends Configuration> implements Bundle {
 
+    private static final Logger LOG = LoggerFactory.getLogger(ConstrettoBundle.class);
+    private static final long RENDER_CACHE_CHARS = 4 * 1024 * 1024;
+    private static final long RENDER_TIMEOUT_MILLIS = 10000;
+
     private final ConfigurationContextResolver tagResolver;
+    private final ConstrettoReloadableConfiguration<T> configuration = new ConstrettoReloadableConfiguration<>();
+    private final ConstrettoConfigurationMetrics metrics = new ConstrettoConfigurationMetrics();
+    private ConstrettoConfigurationFactory.FilterMode filterMode = ConstrettoConfigurationFactory.FilterMode.STREAMING;
+    private ConstrettoConfigurationCache cache;
+    private long reloadDebounceMillis = -1;
+    private long tagPollMillis = -1;
+    private boolean keepTree;
+    private boolean renderTask;
+    private Pattern secrets = ConstrettoRenderTask.DEFAULT_SECRETS;
+    private String preloadPath;
+    private StrLookup<?> substitution;
+    private Path snapshotDirectory;
+    private ConstrettoConfigurationFactoryFactory<T> factoryFactory;
+    private ConstrettoConfigurationReader preloadReader;
 
     /**
      * Constretto-support using the DefaultConfigurationContextResolver.
@@ -36,20 +69,264 @@ public class ConstrettoBundle<T extends Configuration> implements Bundle {
     }
 
     /**
-     * Rig the configuration source provider and the configuration factory provider
+     * Selects how the configuration is filtered. The default is to filter the token stream while parsing.
+     *
+     * @param filterMode STREAMING, TREE or PARALLEL
+     * @return this bundle
+     */
+    public ConstrettoBundle<T> withFilterMode(ConstrettoConfigurationFactory.FilterMode filterMode) {
+        this.filterMode = filterMode;
+        return this;
+    }
+
+    /**
+     * Enables a persistent cache of the filtered configuration, so that processes started with the same
+     * configuration source and the same set of active tags skip the parsing and filtering.
+     * The configuration is still bound and validated on every start.
+     *
+     * @param directory The local directory to store the cache entries in
+     * @return this bundle
+     */
+    public ConstrettoBundle<T> withConfigurationCache(Path directory) {
+        this.cache = new ConstrettoConfigurationCache(directory);
+        return this;
+    }
+
+    /**
+     * Enables reloading of the configuration when the configuration file changes.
+     * Changes are picked up when the file has been left unchanged for half a second.
+     *
+     * @return this bundle
+     * @see #getConfiguration()
+     */
+    public ConstrettoBundle<T> withHotReload() {
+        return withHotReload(500, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Enables reloading of the configuration when the configuration file changes.
+     * The changed configuration is filtered and validated before it replaces the current configuration;
+     * an invalid configuration is logged and ignored.
+     *
+     * @param debounce How long the file must be left unchanged before it is reloaded
+     * @param unit The unit of debounce
+     * @return this bundle
+     * @see #getConfiguration()
+     */
+    public ConstrettoBundle<T> withHotReload(long debounce, TimeUnit unit) {
+        this.reloadDebounceMillis = unit.toMillis(debounce);
+        return this;
+    }
+
+    /**
+     * Switches the configuration to new tags at runtime, when the tag resolver returns other tags than the ones
+     * the configuration was built for. The configuration for the new tags is resolved from the already parsed
+     * source and validated, and then published to the holder returned by getConfiguration().
+     *
+     * @param interval How often the tag resolver is polled
+     * @param unit The unit of interval
+     * @return this bundle
+     * @see #getConfiguration()
+     */
+    public ConstrettoBundle<T> withTagSwitching(long interval, TimeUnit unit) {
+        this.tagPollMillis = unit.toMillis(interval);
+        return this;
+    }
+
+    /**
+     * Keeps the filtered tree of each configuration, for ConstrettoConfigurationSnapshot.getTree() and getFlat().
+     * The tree is always kept when hot reload or tag switching is enabled, as the listeners compare the trees.
+     *
+     * @return this bundle
+     * @see #getConfiguration()
+     */
+    public ConstrettoBundle<T> withConfigurationTree() {
+        this.keepTree = true;
+        return this;
+    }
+
+    /**
+     * Starts reading, parsing and filtering the configuration on a background thread when the bundle is
+     * initialized, so that the work overlaps the initialization of the rest of the application.
+     * Building the configuration then waits for the result, and only binds and validates it.
+     *
+     * The path of the configuration is not known until the application runs, so it must be given here.
+     * If the application is started with another configuration file, the preloaded one is ignored.
+     *
+     * @param path The path of the configuration file the application is started with
+     * @return this bundle
+     */
+    public ConstrettoBundle<T> withPreload(String path) {
+        this.preloadPath = checkNotNull(path);
+        return this;
+    }
+
+    /**
+     * Substitutes '${VAR}' environment variables in the configuration, in the same pass as the '@' tags are
+     * rewritten. Use this instead of wrapping the source provider in a SubstitutingSourceProvider.
+     *
+     * @param strict true if an undefined variable without a default value fails the build
+     * @return this bundle
+     */
+    public ConstrettoBundle<T> withEnvironmentVariableSubstitution(boolean strict) {
+        this.substitution = new EnvironmentVariableLookup(strict);
+        return this;
+    }
+
+    /**
+     * Reads configuration paths that are http(s) URLs from a remote store, revalidating a local snapshot
+     * of the configuration on each start, and falling back to the snapshot if the store is unavailable.
+     * Combine with withConfigurationCache() to also skip the parsing and filtering when the configuration has not changed.
+     *
+     * @param snapshotDirectory The local directory to store the snapshots in
+     * @return this bundle
+     * @see ConstrettoHttpSourceProvider
+     */
+    public ConstrettoBundle<T> withRemoteSource(Path snapshotDirectory) {
+        this.snapshotDirectory = checkNotNull(snapshotDirectory);
+        return this;
+    }
+
+    /**
+     * Registers the 'constretto-render' admin task, which renders the configuration for any set of tags.
+     * The factory then keeps the bytes read by each build for the task.
+     *
+     * @return this bundle
+     * @see ConstrettoRenderTask
+     */
+    public ConstrettoBundle<T> withRenderTask() {
+        this.renderTask = true;
+        return this;
+    }
+
+    /**
+     * Selects the keys whose values are masked by the 'constretto-render' admin task.
+     *
+     * @param secrets Matches the complete key names, see ConstrettoRenderTask.DEFAULT_SECRETS
+     * @return this bundle
+     */
+    public ConstrettoBundle<T> withSecrets(Pattern secrets) {
+        this.secrets = checkNotNull(secrets);
+        return this;
+    }
+
+    /**
+     * The current configuration. Unlike the configuration passed to Application.run(), this reflects
+     * the changes picked up when hot reload is enabled. The snapshots only have a filtered tree and a flat view
+     * if hot reload, tag switching or withConfigurationTree() is enabled.
+     *
+     * @return The holder of the current configuration
+     */
+    public ConstrettoReloadableConfiguration<T> getConfiguration() {
+        return configuration;
+    }
+
+    /**
+     * The time and memory spent building the configuration, per phase.
+     * Registered in the metrics of the environment when the bundle runs.
+     *
+     * @return The measurements of building the configuration
+     */
+    public ConstrettoConfigurationMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Rig the configuration source provider and the configuration factory provider,
+     * add the 'constretto-check' command, and start reading the configuration if preloading is enabled
      *
      * @param bootstrap Provides the original ConfigurationSourceProvider
      */
     @Override
     @SuppressWarnings("unchecked")
     public void initialize(Bootstrap bootstrap) {
-        bootstrap.setConfigurationSourceProvider(new ConstrettoConfigurationProvider(bootstrap.getConfigurationSourceProvider()));
-        bootstrap.setConfigurationFactoryFactory(new ConstrettoConfigurationFactoryFactory<T>(tagResolver));
+        ConfigurationSourceProvider source = snapshotDirectory == null
+                ? bootstrap.getConfigurationSourceProvider()
+                : new ConstrettoHttpSourceProvider(bootstrap.getConfigurationSourceProvider(), snapshotDirectory);
+        bootstrap.setConfigurationSourceProvider(substitution == null
+                ? new ConstrettoConfigurationProvider(source)
+                : new ConstrettoSubstitutingProvider(source, substitution));
+        factoryFactory = new ConstrettoConfigurationFactoryFactory<T>(tagResolver)
+                .withFilterMode(filterMode)
+                .withCache(cache)
+                .withReloadable(configuration, keepTree || reloadDebounceMillis >= 0 || tagPollMillis >= 0)
+                .withTagSwitching(tagPollMillis >= 0)
+                .withRendering(renderTask)
+                .withMetrics(metrics);
+        if (preloadPath != null) {
+            preloadReader = new ConstrettoConfigurationReader(bootstrap.getObjectMapper())
+                    .withFilterMode(filterMode)
+                    .withCache(cache)
+                    .withSourceRetained(tagPollMillis >= 0 || renderTask)
+                    .withMetrics(metrics);
+            factoryFactory.withPreload(ConstrettoConfigurationPreload.start(
+                    preloadReader, tagResolver, bootstrap.getConfigurationSourceProvider(), preloadPath, metrics));
+        }
+        bootstrap.setConfigurationFactoryFactory(factoryFactory);
+        bootstrap.addCommand(new ConstrettoCheckCommand());
     }
 
+    /**
+     * Registers the configuration metrics, and the 'constretto-render' admin task if it is enabled,
+     * stops the threads that read included files when the application stops,
+     * starts watching the configuration file if hot reload is enabled,
+     * and starts polling the tag resolver if tag switching is enabled
+     *
+     * @param environment The application environment
+     */
     @Override
     public void run(Environment environment) {
-        // all work is done in initialize()
+        metrics.register(environment.metrics());
+        final ConstrettoConfigurationFactory<T> factory = factoryFactory.getFactory();
+        // stopped after the reloader and the tag switcher, which build with the factory
+        environment.lifecycle().manage(new Managed() {
+            @Override
+            public void start() throws Exception {
+            }
+
+            @Override
+            public void stop() throws Exception {
+                if (factory != null) {
+                    factory.shutdown();
+                }
+                if (preloadReader != null) {
+                    preloadReader.shutdown();
+                }
+            }
+        });
+        if (renderTask) {
+            if (factory == null) {
+                LOG.warn("The render task is enabled, but the configuration was not built by constretto");
+            } else {
+                ConstrettoRenderTask task = new ConstrettoRenderTask(factory, secrets, RENDER_CACHE_CHARS, RENDER_TIMEOUT_MILLIS);
+                environment.admin().addTask(task);
+                environment.lifecycle().manage(task);
+            }
+        }
+        if (reloadDebounceMillis >= 0) {
+            Path file = factory == null ? null : toFile(factory.getLastPath());
+            if (file == null) {
+                LOG.warn("Hot reload is enabled, but the configuration was not read from a file");
+            } else {
+                environment.lifecycle().manage(new ConstrettoConfigurationReloader(factory, configuration, file, reloadDebounceMillis));
+            }
+        }
+        if (tagPollMillis >= 0) {
+            if (factory == null) {
+                LOG.warn("Tag switching is enabled, but the configuration was not built by constretto");
+            } else {
+                environment.lifecycle().manage(new ConstrettoTagSwitcher(factory, tagPollMillis));
+            }
+        }
+    }
+
+    private static Path toFile(String path) {
+        try {
+            Path file = path == null ? null : Paths.get(path);
+            return file != null && Files.isRegularFile(file) ? file : null;
+        } catch (InvalidPathException e) {
+            return null;
+        }
     }
 
 }
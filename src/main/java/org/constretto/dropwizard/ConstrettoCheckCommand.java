@@ -0,0 +1,182 @@
+package org.constretto.dropwizard;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import io.dropwizard.cli.Command;
+import io.dropwizard.configuration.ConfigurationException;
+import io.dropwizard.configuration.ConfigurationSourceProvider;
+import io.dropwizard.setup.Bootstrap;
+import net.sourceforge.argparse4j.impl.Arguments;
+import net.sourceforge.argparse4j.inf.Namespace;
+import net.sourceforge.argparse4j.inf.Subparser;
+
+import javax.validation.Validator;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Validates the configuration for several sets of constretto tags, e.g. every environment in a CI build.
+ *
+ * The source is read and parsed once into a ConstrettoConfigurationIndex. Each set of tags is then resolved,
+ * bound and validated concurrently, and the result of each is printed with its timing. The command fails
+ * if the configuration is invalid for any of the tag sets.
+ *
+ * <pre>
+ * java -jar app.jar constretto-check config.yml -t dev -t test -t production,eu
+ * </pre>
+ *
+ * @author kjeivers
+ */
+public class ConstrettoCheckCommand extends Command {
+
+    private final PrintStream out;
+
+    public ConstrettoCheckCommand() {
+        this(System.out);
+    }
+
+    ConstrettoCheckCommand(PrintStream out) {
+        super("constretto-check", "Validates the configuration for each of several sets of constretto tags");
+        this.out = out;
+    }
+
+    @Override
+    public void configure(Subparser subparser) {
+        subparser.addArgument("file")
+                .nargs("?")
+                .help("application configuration file");
+        subparser.addArgument("-t", "--tags")
+                .dest("tags")
+                .action(Arguments.append())
+                .required(true)
+                .help("a comma-separated set of constretto tags to validate the configuration for; may be repeated");
+        subparser.addArgument("--threads")
+                .dest("threads")
+                .type(Integer.class)
+                .setDefault(Runtime.getRuntime().availableProcessors())
+                .help("the number of tag sets to validate concurrently");
+    }
+
+    @Override
+    public void run(Bootstrap<?> bootstrap, Namespace namespace) throws Exception {
+        List<List<String>> tagSets = new ArrayList<>();
+        for (Object tags : namespace.getList("tags")) {
+            tagSets.add(Splitter.on(',').trimResults().omitEmptyStrings().splitToList(tags.toString()));
+        }
+        String path = namespace.getString("file");
+        List<Result> results = check(bootstrap.getApplication().getConfigurationClass(),
+                bootstrap.getValidatorFactory().getValidator(), bootstrap.getObjectMapper(),
+                bootstrap.getConfigurationSourceProvider(), path == null ? "" : path, tagSets,
+                namespace.getInt("threads"));
+        int failed = 0;
+        for (Result result : results) {
+            out.println(result);
+            if (!result.isValid()) {
+                failed++;
+            }
+        }
+        if (failed > 0) {
+            throw new IllegalStateException("The configuration is invalid for " + failed + " of " + results.size() + " tag sets");
+        }
+    }
+
+    /**
+     * @param klass The configuration class
+     * @param validator The validator of the configuration
+     * @param mapper The mapper to bind the configuration with
+     * @param sourceProvider the provider to to use for reading configuration files
+     * @param path the path of the configuration file
+     * @param tagSets The sets of tags to validate the configuration for
+     * @param threads The number of tag sets to validate concurrently
+     * @return The result for each tag set, in order
+     * @throws IOException if there is an error reading or parsing the source
+     * @throws InterruptedException if interrupted while waiting for the results
+     */
+    <C> List<Result> check(Class<C> klass, Validator validator, ObjectMapper mapper, final ConfigurationSourceProvider sourceProvider,
+                           final String path, List<List<String>> tagSets, int threads) throws IOException, InterruptedException {
+        final ConstrettoConfigurationIndex index = ConstrettoConfigurationIndex.read(sourceProvider, path);
+        final ConstrettoConfigurationFactory<C> factory = new ConstrettoConfigurationFactory<>(klass, validator, mapper, "dw", null);
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, tagSets.size())));
+        try {
+            List<Future<Result>> futures = new ArrayList<>();
+            for (final List<String> tags : tagSets) {
+                futures.add(executor.submit(new Callable<Result>() {
+                    @Override
+                    public Result call() {
+                        long start = System.nanoTime();
+                        String error = null;
+                        try {
+                            if (index == null) {
+                                error = path + " must not be empty";
+                            } else {
+                                factory.build(index, sourceProvider, path, tags);
+                            }
+                        } catch (ConfigurationException e) {
+                            error = e.getMessage().trim();
+                        } catch (IOException | RuntimeException e) {
+                            error = e.toString();
+                        }
+                        return new Result(tags, System.nanoTime() - start, error);
+                    }
+                }));
+            }
+            List<Result> results = new ArrayList<>();
+            for (Future<Result> future : futures) {
+                try {
+                    results.add(future.get());
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException(e.getCause());
+                }
+            }
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * The result of validating the configuration for a set of tags
+     */
+    static final class Result {
+        private final Collection<String> tags;
+        private final long nanos;
+        private final String error;
+
+        Result(Collection<String> tags, long nanos, String error) {
+            this.tags = tags;
+            this.nanos = nanos;
+            this.error = error;
+        }
+
+        boolean isValid() {
+            return error == null;
+        }
+
+        Collection<String> getTags() {
+            return tags;
+        }
+
+        String getError() {
+            return error;
+        }
+
+        @Override
+        public String toString() {
+            String line = String.format(Locale.ENGLISH, "%s  %-30s %8.1f ms", isValid() ? "PASS" : "FAIL",
+                    tags.isEmpty() ? "(no tags)" : Joiner.on(',').join(tags), nanos / (double) TimeUnit.MILLISECONDS.toNanos(1));
+            return isValid() ? line : line + System.lineSeparator() + "      " + error.replace("\n", "\n      ");
+        }
+    }
+
+}
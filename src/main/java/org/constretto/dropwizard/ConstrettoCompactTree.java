@@ -0,0 +1,141 @@
+package org.constretto.dropwizard;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compacts a configuration tree that is kept in memory for the lifetime of the configuration.
+ *
+ * Field names and text values are interned, structurally identical subtrees are hash-consed into a single shared
+ * instance, and the containers are sized to their contents instead of the default capacity of 16. The compacted tree
+ * is equal to the original, but shares nodes between its branches, so it must never be modified.
+ *
+ * @author kjeivers
+ */
+final class ConstrettoCompactTree {
+
+    private final Map<Object, JsonNode> canonical = new HashMap<>();
+    private final JsonNodeFactory nodeFactory;
+
+    private ConstrettoCompactTree(JsonNodeFactory nodeFactory) {
+        this.nodeFactory = nodeFactory;
+    }
+
+    /**
+     * @param tree A configuration tree, or null
+     * @return An equal tree that shares identical subtrees and must not be modified, or null
+     */
+    static JsonNode compact(JsonNode tree) {
+        return tree == null ? null : new ConstrettoCompactTree(JsonNodeFactory.instance).intern(tree);
+    }
+
+    private JsonNode intern(JsonNode node) {
+        Object key;
+        JsonNode compacted;
+        switch (node.getNodeType()) {
+            case OBJECT:
+                String[] names = new String[node.size()];
+                JsonNode[] values = new JsonNode[node.size()];
+                int i = 0;
+                Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
+                while (fields.hasNext()) {
+                    Map.Entry<String, JsonNode> field = fields.next();
+                    names[i] = field.getKey().intern();
+                    values[i++] = intern(field.getValue());
+                }
+                key = new Container(names, values);
+                compacted = canonical.get(key);
+                if (compacted == null) {
+                    // a load factor of 1 sizes the table to the next power of two, which is never resized
+                    Map<String, JsonNode> children = new LinkedHashMap<>(Math.max(1, names.length), 1f);
+                    for (int j = 0; j < names.length; j++) {
+                        children.put(names[j], values[j]);
+                    }
+                    compacted = new ObjectNode(nodeFactory, children);
+                }
+                break;
+            case ARRAY:
+                JsonNode[] elements = new JsonNode[node.size()];
+                for (int j = 0; j < elements.length; j++) {
+                    elements[j] = intern(node.get(j));
+                }
+                key = new Container(null, elements);
+                compacted = canonical.get(key);
+                if (compacted == null) {
+                    List<JsonNode> children = new ArrayList<>(elements.length);
+                    children.addAll(Arrays.asList(elements));
+                    compacted = new ArrayNode(nodeFactory, children);
+                }
+                break;
+            case STRING:
+                key = node;
+                compacted = canonical.get(key);
+                if (compacted == null) {
+                    compacted = TextNode.valueOf(node.textValue().intern());
+                }
+                break;
+            default:
+                key = node;
+                compacted = canonical.get(key);
+                if (compacted == null) {
+                    compacted = node;
+                }
+        }
+        canonical.put(key, compacted);
+        return compacted;
+    }
+
+    /**
+     * The structure of a container whose children have already been interned, so that they can be compared by identity
+     */
+    private static final class Container {
+        private final String[] names;
+        private final JsonNode[] children;
+        private final int hash;
+
+        Container(String[] names, JsonNode[] children) {
+            this.names = names;
+            this.children = children;
+            int h = names == null ? 1 : 2;
+            for (int i = 0; i < children.length; i++) {
+                h = h * 31 + (names == null ? 0 : names[i].hashCode());
+                h = h * 31 + System.identityHashCode(children[i]);
+            }
+            this.hash = h;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Container)) {
+                return false;
+            }
+            Container other = (Container) o;
+            if (hash != other.hash || children.length != other.children.length || (names == null) != (other.names == null)) {
+                return false;
+            }
+            for (int i = 0; i < children.length; i++) {
+                if (children[i] != other.children[i] || (names != null && names[i] != other.names[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+}
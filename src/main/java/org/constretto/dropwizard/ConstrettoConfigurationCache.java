@@ -0,0 +1,150 @@
+package org.constretto.dropwizard;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.google.common.base.Joiner;
+import com.google.common.hash.Hashing;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.TreeSet;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A persistent cache of filtered configuration trees, stored in Smile format in a local directory.
+ *
+ * An entry is keyed by a content hash of the (rewritten) configuration source and the sorted set of
+ * active constretto tags, so a change in either one results in a cache miss. Entries are written
+ * atomically, and the stale entries for the same configuration path and the same set of tags are removed
+ * when a new one is written, so each set of tags the configuration is started with keeps its own entry.
+ *
+ * @author kjeivers
+ */
+public class ConstrettoConfigurationCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ConstrettoConfigurationCache.class);
+    private static final String SUFFIX = ".smile";
+
+    private final Path directory;
+    private final SmileFactory smileFactory;
+
+    /**
+     * @param directory The directory to store the cache entries in. Created if it does not exist.
+     */
+    public ConstrettoConfigurationCache(Path directory) {
+        this.directory = checkNotNull(directory);
+        this.smileFactory = new SmileFactory();
+    }
+
+    /**
+     * @param path The path of the configuration
+     * @param source The content of the configuration source
+     * @param activeTags The set of active constretto tags
+     * @return The key of the cache entry for the configuration
+     */
+    String key(String path, byte[] source, Collection<String> activeTags) {
+        String tags = Joiner.on(',').join(new TreeSet<>(activeTags));
+        String contentHash = Hashing.sha256().newHasher()
+                .putBytes(source)
+                .putByte((byte) 0)
+                .putString(tags, StandardCharsets.UTF_8)
+                .hash().toString();
+        return prefix(path) + prefix(tags) + contentHash;
+    }
+
+    /**
+     * @param key The key of the cache entry
+     * @param mapper The mapper to read the tree with
+     * @return The cached filtered tree, or null if there is no (readable) entry for the key
+     */
+    JsonNode read(String key, ObjectMapper mapper) {
+        Path entry = directory.resolve(key + SUFFIX);
+        if (!Files.isRegularFile(entry)) {
+            return null;
+        }
+        try (InputStream input = Files.newInputStream(entry);
+             JsonParser parser = smileFactory.createParser(input)) {
+            return mapper.readTree(parser);
+        } catch (IOException e) {
+            LOG.warn("Ignoring unreadable configuration cache entry {}", entry, e);
+            deleteQuietly(entry);
+            return null;
+        }
+    }
+
+    /**
+     * Stores the filtered tree. Failure to write the entry is logged, but otherwise ignored.
+     *
+     * @param key The key of the cache entry
+     * @param node The filtered tree
+     * @param mapper The mapper to write the tree with
+     */
+    void write(String key, JsonNode node, ObjectMapper mapper) {
+        Path entry = directory.resolve(key + SUFFIX);
+        Path temp = null;
+        try {
+            Files.createDirectories(directory);
+            temp = Files.createTempFile(directory, key, ".tmp");
+            try (OutputStream output = Files.newOutputStream(temp);
+                 JsonGenerator generator = smileFactory.createGenerator(output)) {
+                mapper.writeTree(generator, node);
+            }
+            try {
+                Files.move(temp, entry, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, entry, StandardCopyOption.REPLACE_EXISTING);
+            }
+            removeStaleEntries(key);
+        } catch (IOException e) {
+            LOG.warn("Unable to write configuration cache entry {}", entry, e);
+            if (temp != null) {
+                deleteQuietly(temp);
+            }
+        }
+    }
+
+    /**
+     * Removes the other entries for the same configuration path and the same set of tags,
+     * and the entries for the path that were keyed without their tags
+     */
+    private void removeStaleEntries(String key) throws IOException {
+        int pathEnd = key.indexOf('-') + 1;
+        String prefix = key.substring(0, key.indexOf('-', pathEnd) + 1);
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory, key.substring(0, pathEnd) + "*" + SUFFIX)) {
+            for (Path entry : entries) {
+                String name = entry.getFileName().toString();
+                boolean untagged = name.indexOf('-', pathEnd) == -1;
+                if ((untagged || name.startsWith(prefix)) && !name.equals(key + SUFFIX)) {
+                    deleteQuietly(entry);
+                }
+            }
+        }
+    }
+
+    private static String prefix(String value) {
+        return Hashing.sha256().hashString(value, StandardCharsets.UTF_8).toString().substring(0, 16) + "-";
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            LOG.debug("Unable to delete {}", file, e);
+        }
+    }
+
+}
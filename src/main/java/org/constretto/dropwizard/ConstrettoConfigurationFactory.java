@@ -2,193 +2,445 @@ package org.constretto.dropwizard;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ArrayNode;
-import com.fasterxml.jackson.databind.node.ObjectNode;
-import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
-import com.fasterxml.jackson.dataformat.yaml.snakeyaml.error.Mark;
-import com.fasterxml.jackson.dataformat.yaml.snakeyaml.error.MarkedYAMLException;
-import com.fasterxml.jackson.dataformat.yaml.snakeyaml.error.YAMLException;
 import com.google.common.collect.ImmutableSet;
 import io.dropwizard.configuration.ConfigurationException;
 import io.dropwizard.configuration.ConfigurationSourceProvider;
 import io.dropwizard.configuration.YamlConfigurationFactory;
 import org.constretto.resolver.ConfigurationContextResolver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import javax.validation.Validator;
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Iterator;
-import java.util.LinkedHashMap;
-import java.util.List;
-import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
 
 /**
  * This class is responsible for filtering the constretto-tagged YAML tree
  * based on the set of active constretto tags.
  *
+ * JSON, Smile and CBOR sources are filtered the same way; the format is given by the extension
+ * of the path, or detected from the first bytes of the source.
+ *
+ * A source written by ConstrettoPrerenderer is already filtered, and is bound without filtering
+ * once its tags have been checked against the active tags.
+ *
  * @author kjeivers
  */
 public class ConstrettoConfigurationFactory<T> extends YamlConfigurationFactory<T> {
 
+    private static final Logger LOG = LoggerFactory.getLogger(ConstrettoConfigurationFactory.class);
+
+    /**
+     * How the constretto-tagged configuration is filtered
+     */
+    public enum FilterMode {
+        /**
+         * Filter the token stream while parsing; the unfiltered tree is never built
+         */
+        STREAMING,
+        /**
+         * Parse the complete tree, then filter it
+         */
+        TREE,
+        /**
+         * Parse the complete tree, then filter it, splitting large objects and arrays across the common ForkJoinPool
+         */
+        PARALLEL
+    }
+
     private final ObjectMapper mapper;
-    private final YAMLFactory yamlFactory;
+    private final Validator validator;
     private final ConfigurationContextResolver tagResolver;
+    private final ConstrettoConfigurationReader reader;
+    private final ConstrettoIncludes includes;
+    private ConstrettoReloadableConfiguration<T> reloadable;
+    private boolean keepTree;
+    private boolean tagSwitching;
+    private boolean rendering;
+    private ConstrettoConfigurationMetrics metrics;
+    private ConstrettoConfigurationPreload preload;
+
+    private volatile Source lastSource;
+    private volatile Set<String> lastTags;
 
     public ConstrettoConfigurationFactory(Class<T> klass, Validator validator, ObjectMapper mapper,
                                           String propertyPrefix, ConfigurationContextResolver tagResolver) {
-        super(klass, validator, mapper, propertyPrefix);
+        super(klass, validator == null ? null : new ConstrettoTimedValidator(validator), mapper, propertyPrefix);
+        this.validator = validator;
         this.tagResolver = tagResolver;
         this.mapper = mapper;
-        this.yamlFactory = new YAMLFactory();
+        this.reader = new ConstrettoConfigurationReader(mapper);
+        this.includes = reader.getIncludes();
     }
 
+    /**
+     * @param filterMode How to filter the configuration (default STREAMING)
+     * @return this factory
+     */
+    public ConstrettoConfigurationFactory<T> withFilterMode(FilterMode filterMode) {
+        reader.withFilterMode(filterMode);
+        return this;
+    }
 
     /**
-     * Loads, parses, binds, and validates a configuration object.
-     * This implementation filters the YAML tree before delegating to the default ConfigurationFactory
+     * @param parallelThreshold The minimum number of children of an object or array before they are
+     *                          filtered in parallel in PARALLEL mode (default 64)
+     * @return this factory
+     */
+    public ConstrettoConfigurationFactory<T> withParallelThreshold(int parallelThreshold) {
+        reader.withParallelThreshold(parallelThreshold);
+        return this;
+    }
+
+    /**
+     * @param cache A persistent cache of filtered configuration trees, or null to disable caching
+     * @return this factory
+     */
+    public ConstrettoConfigurationFactory<T> withCache(ConstrettoConfigurationCache cache) {
+        reader.withCache(cache);
+        return this;
+    }
+
+    /**
+     * @param reloadable The holder to publish each successfully built configuration, and its filtered tree, to, or null
+     * @return this factory
+     */
+    public ConstrettoConfigurationFactory<T> withReloadable(ConstrettoReloadableConfiguration<T> reloadable) {
+        return withReloadable(reloadable, true);
+    }
+
+    /**
+     * @param reloadable The holder to publish each successfully built configuration to, or null
+     * @param keepTree true to keep the filtered tree of each snapshot, which the listeners and the flat view need;
+     *                 false to only publish the configuration, without compacting and keeping its tree
+     * @return this factory
+     */
+    public ConstrettoConfigurationFactory<T> withReloadable(ConstrettoReloadableConfiguration<T> reloadable, boolean keepTree) {
+        this.reloadable = reloadable;
+        this.keepTree = keepTree;
+        return this;
+    }
+
+    /**
+     * @param metrics The per-phase measurements to record each build in, or null
+     * @return this factory
+     */
+    public ConstrettoConfigurationFactory<T> withMetrics(ConstrettoConfigurationMetrics metrics) {
+        this.metrics = metrics;
+        reader.withMetrics(metrics);
+        return this;
+    }
+
+    /**
+     * @param tagSwitching true to index the source, and read the fragments it includes for any tags, when the
+     *                     configuration is built, so that switchTags() reads nothing
+     * @return this factory
+     */
+    ConstrettoConfigurationFactory<T> withTagSwitching(boolean tagSwitching) {
+        this.tagSwitching = tagSwitching;
+        reader.withSourceRetained(tagSwitching || rendering);
+        return this;
+    }
+
+    /**
+     * @param rendering true to keep the bytes read by each build, for the 'constretto-render' task. Otherwise the
+     *                  source is streamed, and only kept when tag switching is enabled.
+     * @return this factory
+     */
+    ConstrettoConfigurationFactory<T> withRendering(boolean rendering) {
+        this.rendering = rendering;
+        reader.withSourceRetained(tagSwitching || rendering);
+        return this;
+    }
+
+    /**
+     * @param preload The configuration read in the background, which the first matching build takes, or null
+     * @return this factory
+     */
+    ConstrettoConfigurationFactory<T> withPreload(ConstrettoConfigurationPreload preload) {
+        this.preload = preload;
+        return this;
+    }
+
+    /**
+     * Builds the configuration again from the source of the last successful build
      *
-     * @param sourceProvider the provider to to use for reading configuration files
-     * @param path     the path of the configuration file
-     * @return a validated configuration object that is filtered according to the set of active constretto tags
+     * @return a validated configuration object
      * @throws IOException            if there is an error reading the file
      * @throws ConfigurationException if there is an error parsing or validating the file
      */
-    @Override
-    public T build(ConfigurationSourceProvider sourceProvider, String path) throws IOException, ConfigurationException {
-        try (InputStream input = sourceProvider.open(checkNotNull(path))) {
-            final JsonNode node = mapper.readTree(yamlFactory.createParser(input));
-            ByteArrayOutputStream os = new ByteArrayOutputStream();
-            mapper.writeTree(new YAMLFactory().createGenerator(os), removeInactiveElements(node, tagResolver.getTags()));
-            return super.build(new DirectSourceProvider(new ByteArrayInputStream(os.toByteArray())), path);
-        } catch (YAMLException e) {
-            StringBuilder sb = new StringBuilder(e.getMessage());
-            if (e instanceof MarkedYAMLException) {
-                Mark mark = ((MarkedYAMLException) e).getProblemMark();
-                sb.append(" at line: ").append(mark.getLine() + 1)
-                        .append(", column: ").append(mark.getColumn() + 1);
-            }
-            throw new ConstrettoFilterConfigurationException(path, ImmutableSet.of(sb.toString()), e);
+    synchronized T reload() throws IOException, ConfigurationException {
+        Source source = getLastSource();
+        return build(source.provider, source.path);
+    }
+
+    /**
+     * Resolves the configuration for other tags from the bytes and the included fragments read by the last
+     * successful build, and publishes it. Nothing is read; an included fragment that the build did not read fails
+     * the switch, so enable withTagSwitching() to read the fragments of all tags when the configuration is built.
+     *
+     * @param activeTags The new set of active constretto tags
+     * @return a validated configuration object that is filtered according to the new tags
+     * @throws IOException            if there is an error binding the configuration
+     * @throws ConfigurationException if there is an error validating the configuration, or a fragment was not read
+     */
+    synchronized T switchTags(Collection<String> activeTags) throws IOException, ConfigurationException {
+        Source source = getLastSource();
+        JsonNode node = resolveTree(index(source), null, source.path, activeTags, source.fragments);
+        T configuration = build(node, source.path);
+        lastTags = ImmutableSet.copyOf(activeTags);
+        publish(configuration, node);
+        return configuration;
+    }
+
+    /**
+     * Publishes the configuration to the holder, if any, with its compacted tree if the trees are kept
+     */
+    private void publish(T configuration, JsonNode node) {
+        if (reloadable != null) {
+            reloadable.publish(configuration, keepTree ? ConstrettoCompactTree.compact(node) : null);
         }
     }
 
     /**
+     * Binds and validates the configuration resolved from an index, without publishing it
      *
-     * @param node The root node to consider
+     * @param index The index of the configuration source
+     * @param sourceProvider the provider to to use for reading included configuration files
+     * @param path the path of the configuration file
      * @param activeTags The set of active constretto tags
-     * @return A modified JsonNode tree filtered according to the activeTags
-     */
-    private JsonNode removeInactiveElements(JsonNode node, Collection<String> activeTags) {
-        switch (node.getNodeType()) {
-            case OBJECT:
-                return removeInactiveObjectElements((ObjectNode) node, activeTags);
-            case ARRAY:
-                return removeInactiveArrayElements((ArrayNode) node, activeTags);
-            default:
-                return node;
-        }
+     * @return a validated configuration object that is filtered according to the tags
+     * @throws IOException            if there is an error reading an included file or binding the configuration
+     * @throws ConfigurationException if there is an error validating the configuration
+     */
+    T build(ConstrettoConfigurationIndex index, ConfigurationSourceProvider sourceProvider, String path,
+            Collection<String> activeTags) throws IOException, ConfigurationException {
+        return build(resolveTree(index, sourceProvider, path, activeTags, new ConstrettoIncludes.Fragments()), path);
     }
 
     /**
+     * Resolves the filtered tree for a set of tags from the bytes and included fragments read by a build.
+     * The index of the source is parsed from the bytes when it is needed, so that builds in the default STREAMING
+     * mode never pay for the unfiltered tree. The bytes are only kept when tag switching or rendering is enabled.
      *
-     * @param node An ArrayNode
+     * @param source The source of a successful build
      * @param activeTags The set of active constretto tags
-     * @return A new ArrayNode containing the elements that should be present according to the constretto tags
-     */
-    private ArrayNode removeInactiveArrayElements(ArrayNode node, Collection<String> activeTags) {
-        Iterator<JsonNode> elts = node.elements();
-        List<JsonNode> resultElts = new ArrayList<>();
-        while (elts.hasNext()) {
-            JsonNode child = elts.next();
-            if (child.isObject() && child.size() > 0) {
-                Map.Entry<String, JsonNode> firstVal = child.fields().next();
-                String fieldName = firstVal.getKey();
-                String fieldValue = firstVal.getValue().asText();
-                // if the first child element consists of a constretto-tag and nothing more: '-.production'
-                if (fieldName.startsWith(".") && fieldName.indexOf('.', 1) == -1
-                        && ("null".equals(fieldValue) || "".equals(fieldValue)))
-                {
-                    String tag = fieldName.substring(1);
-                    if (activeTags.contains(tag)) {
-                        resultElts.add(removeFirstChild(removeInactiveElements(child, activeTags)));
-                    }
-                } else {
-                    resultElts.add(removeInactiveElements(child, activeTags));
-                }
-            } else {
-                resultElts.add(removeInactiveElements(child, activeTags));
-            }
+     * @return The filtered tree, with its includes expanded
+     * @throws IOException            if there is an error reading an included file the build did not read
+     * @throws ConfigurationException if the source is pre-rendered for other tags, or an include directive is invalid
+     * @throws IllegalStateException  if the build did not keep its source
+     */
+    JsonNode resolveTree(Source source, Collection<String> activeTags) throws IOException, ConfigurationException {
+        return resolveTree(index(source), source.provider, source.path, activeTags, source.fragments);
+    }
+
+    private JsonNode resolveTree(ConstrettoConfigurationIndex index, ConfigurationSourceProvider sourceProvider,
+                                 String path, Collection<String> activeTags, ConstrettoIncludes.Fragments fragments)
+            throws IOException, ConfigurationException {
+        // the resolved tree shares the untagged subtrees of the index, and binding applies the overrides in place
+        JsonNode node = reader.checkPrerendered(path, index.resolve(activeTags).deepCopy(), activeTags);
+        return includes.expand(sourceProvider, path, node, activeTags, fragments);
+    }
+
+    /**
+     * Indexes the bytes read by a build, and reads the fragments they include for any tags
+     */
+    private void prepare(Source source) throws IOException {
+        try {
+            includes.prefetch(source.provider, source.path, index(source).getSource(), source.fragments);
+        } catch (ConfigurationException e) {
+            // only fails a switch to the tags of the invalid directive
+            LOG.warn("Unable to read the included configurations of all tags of {}", source.path, e);
         }
-        return node.arrayNode().addAll(resultElts);
     }
 
     /**
+     * The index of the bytes read by a build, parsed without holding the monitor of the factory. The index takes
+     * several times the memory of the bytes, so it only replaces them when tag switching is enabled, where a switch
+     * must not parse; otherwise a fresh index is parsed for each rendering.
      *
-     * @param node An ObjectNode
-     * @param activeTags The set of active constretto tags
-     * @return A new ObjectNode with only the active child elements
-     */
-    private JsonNode removeInactiveObjectElements(ObjectNode node, Collection<String> activeTags) {
-        Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
-        Map<String, JsonNode> resultFields = new LinkedHashMap<>();
-        while(fields.hasNext()) {
-            Map.Entry<String, JsonNode> field = fields.next();
-            String fieldName = field.getKey();
-            if (fieldName.startsWith(".")) {
-                int dot2 = fieldName.indexOf('.', 1);
-                if (dot2 != -1) {
-                    String tag = fieldName.substring(1, dot2);
-                    if (activeTags.contains(tag)) {
-                        String resultFieldName = fieldName.substring(dot2 + 1);
-                        resultFields.put(resultFieldName, removeInactiveElements(field.getValue(), activeTags));
-                    }
-                } else if (!resultFields.containsKey(field.getKey())) {
-                    resultFields.put(field.getKey(), removeInactiveElements(field.getValue(), activeTags));
-                }
-            } else if (!resultFields.containsKey(field.getKey())) {
-                resultFields.put(field.getKey(), removeInactiveElements(field.getValue(), activeTags));
+     * @return The index of the bytes read by a build
+     */
+    private ConstrettoConfigurationIndex index(Source source) throws IOException {
+        synchronized (source) {
+            if (source.index != null) {
+                return source.index;
+            }
+            checkState(source.content != null, "The source of %s is only kept with tag switching or rendering enabled", source.path);
+            JsonNode node = mapper.readTree(reader.createParser(source.path, new ByteArrayInputStream(source.content)));
+            ConstrettoConfigurationIndex index = ConstrettoConfigurationIndex.of(ConstrettoCompactTree.compact(node));
+            if (tagSwitching) {
+                source.index = index;
+                source.content = null;
             }
+            return index;
         }
-        return node.objectNode().setAll(resultFields);
     }
 
     /**
-     * Mutates the node by removing first child element
+     * Stops the threads that read the included fragments, once the configuration is no longer built
+     */
+    void shutdown() {
+        reader.shutdown();
+    }
+
+    /**
+     * @return The active tags of the last successfully built configuration, or null
+     */
+    Set<String> getLastTags() {
+        return lastTags;
+    }
+
+    /**
+     * @return The path of the last successfully built configuration, or null
+     */
+    String getLastPath() {
+        Source source = lastSource;
+        return source == null ? null : source.path;
+    }
+
+    /**
+     * @return The source of the last successful build
+     */
+    Source getLastSource() {
+        Source source = lastSource;
+        checkState(source != null, "No configuration has been built yet");
+        return source;
+    }
+
+    /**
+     * @return The resolver of the active constretto tags
+     */
+    ConfigurationContextResolver getTagResolver() {
+        return tagResolver;
+    }
+
+    /**
+     * Binds and validates the filtered tree, leaving the ConstrettoLazy sections to be bound
+     * with the mapper and validator of this factory on first access
+     */
+    @Override
+    protected T build(JsonNode node, String path) throws IOException, ConfigurationException {
+        ConstrettoLazy.Binding previous = ConstrettoLazy.enter(mapper, validator, path);
+        try {
+            return super.build(node, path);
+        } finally {
+            ConstrettoLazy.exit(previous);
+        }
+    }
+
+    /**
+     * Loads, parses, binds, and validates a configuration object.
+     * This implementation filters the YAML tree and hands the filtered tree directly to the
+     * binding step of the default ConfigurationFactory, which applies the system property
+     * overrides and validates the result.
      *
-     * @param node The container node to remove elements for
-     * @return The same JsonNode that was provided as input, with the first child element removed
-     */
-    private JsonNode removeFirstChild(JsonNode node) {
-        Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
-        if (fields.hasNext()) {
-            fields.next();
-            fields.remove();
+     * @param sourceProvider the provider to to use for reading configuration files
+     * @param path     the path of the configuration file
+     * @return a validated configuration object that is filtered according to the set of active constretto tags
+     * @throws IOException            if there is an error reading the file
+     * @throws ConfigurationException if there is an error parsing or validating the file
+     */
+    @Override
+    public T build(ConfigurationSourceProvider sourceProvider, String path) throws IOException, ConfigurationException {
+        checkNotNull(path);
+        final Collection<String> activeTags = tagResolver.getTags();
+        final ConstrettoConfigurationPreload.Result preloaded =
+                preload == null ? null : preload.take(sourceProvider, path, activeTags);
+        final ConstrettoConfigurationMetrics.Recording recording;
+        if (preloaded != null) {
+            recording = metrics == null ? preloaded.getRecording() : metrics.resume(preloaded.getRecording());
+        } else {
+            recording = metrics == null ? new ConstrettoConfigurationMetrics.Recording() : metrics.start();
+        }
+        boolean succeeded = false;
+        try {
+            final Source source = preloaded != null ? preloaded.getSource() : new Source(sourceProvider, path);
+            final JsonNode node = preloaded != null ? preloaded.getNode() : reader.readTree(source, activeTags, recording);
+            recording.begin();
+            final T configuration = build(node, path);
+            recording.end(ConstrettoConfigurationMetrics.Phase.BIND);
+            if (tagSwitching) {
+                prepare(source);
+            }
+            lastSource = source;
+            lastTags = ImmutableSet.copyOf(activeTags);
+            publish(configuration, node);
+            succeeded = true;
+            return configuration;
+        } finally {
+            if (metrics != null) {
+                metrics.finish(recording, succeeded);
+            }
         }
-        return node;
     }
 
     /**
-     * A passthrough ConfigurationSourceProvider that wraps an InputStream.
-     * This is used when invoking the build() method of the superclass.
+     * Filters the tree without modifying it. Containers are only copied where the filtering changes them,
+     * so a subtree without tagged keys is returned as it is, and shared between the source and the result.
+     *
+     * @param node The root node to consider
+     * @param activeTags The set of active constretto tags
+     * @return A JsonNode tree filtered according to the activeTags
+     */
+    JsonNode removeInactiveElements(JsonNode node, Collection<String> activeTags) {
+        return reader.removeInactiveElements(node, activeTags);
+    }
+
+    /**
+     * The source of a build: the fragments it included, and the bytes it read or, with tag switching, their index.
+     * The configuration is resolved for other tags from what the running configuration was built from.
      */
-    private static class DirectSourceProvider implements ConfigurationSourceProvider {
+    static final class Source {
+        private static final AtomicLong VERSIONS = new AtomicLong();
+
+        private final long version = VERSIONS.incrementAndGet();
+        private final ConfigurationSourceProvider provider;
+        private final String path;
+        private final ConstrettoIncludes.Fragments fragments = new ConstrettoIncludes.Fragments();
+        private byte[] content;
+        private ConstrettoConfigurationIndex index;
 
-        private final InputStream is;
-        public DirectSourceProvider(InputStream is) {
-            this.is = is;
+        /**
+         * @param provider the provider to to use for reading the configuration and its included files
+         * @param path the path of the configuration file
+         */
+        Source(ConfigurationSourceProvider provider, String path) {
+            this.provider = provider;
+            this.path = path;
         }
 
-        @Override
-        public InputStream open(String path) throws IOException {
-            return is;
+        ConfigurationSourceProvider getProvider() {
+            return provider;
         }
 
+        String getPath() {
+            return path;
+        }
+
+        ConstrettoIncludes.Fragments getFragments() {
+            return fragments;
+        }
+
+        /**
+         * @param content The bytes read, kept until they are indexed
+         */
+        void keep(byte[] content) {
+            this.content = content;
+        }
+
+        /**
+         * @return A number that identifies the source, without keeping a reference to it
+         */
+        long getVersion() {
+            return version;
+        }
     }
 
     /**
@@ -196,7 +448,7 @@ public class ConstrettoConfigurationFactory<T> extends YamlConfigurationFactory<
      * The exception class used in super (ConfigurationFactory) is not accessible here.
      * Using ConfigurationValidationException also sounds wrong.
      */
-    private static class ConstrettoFilterConfigurationException extends ConfigurationException {
+    static class ConstrettoFilterConfigurationException extends ConfigurationException {
 
         public ConstrettoFilterConfigurationException(String path, Set<String> errors, Throwable cause) {
             super(path, errors, cause);
@@ -14,13 +14,110 @@ import javax.validation.Validator;
 public class ConstrettoConfigurationFactoryFactory<T> implements ConfigurationFactoryFactory<T> {
 
     private final ConfigurationContextResolver tagResolver;
+    private ConstrettoConfigurationFactory.FilterMode filterMode = ConstrettoConfigurationFactory.FilterMode.STREAMING;
+    private ConstrettoConfigurationCache cache;
+    private ConstrettoReloadableConfiguration<T> reloadable;
+    private boolean keepTree = true;
+    private boolean tagSwitching;
+    private boolean rendering;
+    private ConstrettoConfigurationMetrics metrics;
+    private ConstrettoConfigurationPreload preload;
+    private volatile ConstrettoConfigurationFactory<T> factory;
 
     public ConstrettoConfigurationFactoryFactory(ConfigurationContextResolver tagResolver) {
         this.tagResolver = tagResolver;
     }
 
+    /**
+     * @param filterMode How the created factories filter the configuration
+     * @return this factory factory
+     */
+    public ConstrettoConfigurationFactoryFactory<T> withFilterMode(ConstrettoConfigurationFactory.FilterMode filterMode) {
+        this.filterMode = filterMode;
+        return this;
+    }
+
+    /**
+     * @param cache The persistent cache the created factories use, or null to disable caching
+     * @return this factory factory
+     */
+    public ConstrettoConfigurationFactoryFactory<T> withCache(ConstrettoConfigurationCache cache) {
+        this.cache = cache;
+        return this;
+    }
+
+    /**
+     * @param reloadable The holder the created factories publish each built configuration to
+     * @return this factory factory
+     */
+    public ConstrettoConfigurationFactoryFactory<T> withReloadable(ConstrettoReloadableConfiguration<T> reloadable) {
+        return withReloadable(reloadable, true);
+    }
+
+    /**
+     * @param reloadable The holder the created factories publish each built configuration to
+     * @param keepTree true to keep the filtered tree of each snapshot, false to only publish the configuration
+     * @return this factory factory
+     */
+    public ConstrettoConfigurationFactoryFactory<T> withReloadable(ConstrettoReloadableConfiguration<T> reloadable, boolean keepTree) {
+        this.reloadable = reloadable;
+        this.keepTree = keepTree;
+        return this;
+    }
+
+    /**
+     * @param metrics The per-phase measurements the created factories record each build in
+     * @return this factory factory
+     */
+    public ConstrettoConfigurationFactoryFactory<T> withMetrics(ConstrettoConfigurationMetrics metrics) {
+        this.metrics = metrics;
+        return this;
+    }
+
+    /**
+     * @param tagSwitching true if the created factories switch tags, so they prepare each build for it
+     * @return this factory factory
+     */
+    ConstrettoConfigurationFactoryFactory<T> withTagSwitching(boolean tagSwitching) {
+        this.tagSwitching = tagSwitching;
+        return this;
+    }
+
+    /**
+     * @param rendering true if the configuration of the created factories is rendered, so they keep each source for it
+     * @return this factory factory
+     */
+    ConstrettoConfigurationFactoryFactory<T> withRendering(boolean rendering) {
+        this.rendering = rendering;
+        return this;
+    }
+
+    /**
+     * @param preload The configuration read in the background, which the first matching build takes
+     * @return this factory factory
+     */
+    ConstrettoConfigurationFactoryFactory<T> withPreload(ConstrettoConfigurationPreload preload) {
+        this.preload = preload;
+        return this;
+    }
+
+    /**
+     * @return The most recently created factory, or null if none has been created
+     */
+    ConstrettoConfigurationFactory<T> getFactory() {
+        return factory;
+    }
+
     @Override
     public ConfigurationFactory<T> create(Class<T> klass, Validator validator, ObjectMapper objectMapper, String propertyPrefix) {
-        return new ConstrettoConfigurationFactory<>(klass, validator, objectMapper, propertyPrefix, tagResolver);
+        factory = new ConstrettoConfigurationFactory<>(klass, validator, objectMapper, propertyPrefix, tagResolver)
+                .withFilterMode(filterMode)
+                .withCache(cache)
+                .withReloadable(reloadable, keepTree)
+                .withMetrics(metrics)
+                .withTagSwitching(tagSwitching)
+                .withRendering(rendering)
+                .withPreload(preload);
+        return factory;
     }
 }
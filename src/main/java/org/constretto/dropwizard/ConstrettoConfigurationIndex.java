@@ -0,0 +1,234 @@
+package org.constretto.dropwizard;
+
+import com.fasterxml.jackson.core.JsonPointer;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.dropwizard.configuration.ConfigurationSourceProvider;
+
+import java.io.IOException;
+import java.io.PushbackInputStream;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An immutable, reusable index of a constretto-tagged configuration tree that can resolve
+ * the filtered configuration for any set of active tags without parsing the source again.
+ *
+ * For each container in the tree the index records which tags its variants depend on. Resolving a set
+ * of tags only builds new containers where the result depends on the tags; subtrees without tagged keys
+ * are shared between the source and all resolved trees. The resolved trees must therefore not be modified;
+ * use deepCopy() on a resolved tree before modifying it.
+ *
+ * @author kjeivers
+ */
+public final class ConstrettoConfigurationIndex {
+
+    private final JsonNode source;
+    private final ConstrettoTags tags;
+
+    /**
+     * The tags each tag-dependent container depends on. Containers without an entry have no tagged descendants.
+     */
+    private final Map<JsonNode, BitSet> dependencies;
+
+    private ConstrettoConfigurationIndex(JsonNode source) {
+        this.source = source;
+        this.tags = new ConstrettoTags();
+        this.dependencies = new IdentityHashMap<>();
+        index(source);
+    }
+
+    /**
+     * @param source The unfiltered constretto-tagged tree; must not be modified after the index is created
+     * @return The index of the tree
+     */
+    public static ConstrettoConfigurationIndex of(JsonNode source) {
+        return new ConstrettoConfigurationIndex(source);
+    }
+
+    /**
+     * Reads and indexes a configuration source in any of the supported formats (YAML, JSON, Smile or CBOR).
+     * Wrap the source in a ConstrettoConfigurationProvider to support the '@' tag syntax.
+     *
+     * @param sourceProvider the provider to to use for reading configuration files
+     * @param path the path of the configuration file
+     * @return The index of the configuration, or null if the configuration is empty
+     * @throws IOException if there is an error reading or parsing the file
+     */
+    public static ConstrettoConfigurationIndex read(ConfigurationSourceProvider sourceProvider, String path) throws IOException {
+        try (PushbackInputStream input = ConstrettoSourceFormat.pushback(sourceProvider.open(path))) {
+            JsonNode node = new ObjectMapper().readTree(ConstrettoSourceFormat.detect(path, input).createFactory().createParser(input));
+            return node == null ? null : of(node);
+        }
+    }
+
+    /**
+     * @return The unfiltered tree; must not be modified
+     */
+    JsonNode getSource() {
+        return source;
+    }
+
+    /**
+     * @return All tags that occur in the configuration
+     */
+    public Set<String> getTags() {
+        return getTags("");
+    }
+
+    /**
+     * @param path A JSON pointer into the unfiltered configuration
+     * @return The tags that the value at the path depends on
+     */
+    public Set<String> getTags(String path) {
+        BitSet bits = dependencies.get(source.at(JsonPointer.compile(path)));
+        if (bits == null) {
+            return Collections.emptySet();
+        }
+        Set<String> names = new LinkedHashSet<>();
+        for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1)) {
+            names.add(tags.name(i));
+        }
+        return Collections.unmodifiableSet(names);
+    }
+
+    /**
+     * @param activeTags The set of active constretto tags
+     * @return The filtered tree; shares the untagged subtrees with the index and must not be modified
+     */
+    public JsonNode resolve(Collection<String> activeTags) {
+        BitSet active = new BitSet();
+        for (String tag : activeTags) {
+            int index = tags.indexOf(tag, 0, tag.length());
+            if (index >= 0) {
+                active.set(index);
+            }
+        }
+        return resolve(source, active);
+    }
+
+    private BitSet index(JsonNode node) {
+        BitSet bits = null;
+        if (node.isObject()) {
+            Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
+            while (fields.hasNext()) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                bits = union(bits, index(field.getValue()));
+                String fieldName = field.getKey();
+                int dot2 = fieldName.startsWith(".") ? fieldName.indexOf('.', 1) : -1;
+                if (dot2 != -1) {
+                    bits = union(bits, tags.intern(fieldName.substring(1, dot2)));
+                }
+            }
+        } else if (node.isArray()) {
+            for (JsonNode element : node) {
+                bits = union(bits, index(element));
+                String tag = listElementTag(element);
+                if (tag != null) {
+                    int bit = tags.intern(tag);
+                    bits = union(bits, bit);
+                    // the tag marker is always removed from the element, so the element can not be shared
+                    dependencies.put(element, union(dependencies.get(element), bit));
+                }
+            }
+        }
+        if (bits != null) {
+            dependencies.put(node, bits);
+        }
+        return bits;
+    }
+
+    private JsonNode resolve(JsonNode node, BitSet active) {
+        if (!dependencies.containsKey(node)) {
+            return node;
+        }
+        switch (node.getNodeType()) {
+            case OBJECT:
+                return resolveObject((ObjectNode) node, active, false);
+            case ARRAY:
+                return resolveArray((ArrayNode) node, active);
+            default:
+                return node;
+        }
+    }
+
+    private JsonNode resolveArray(ArrayNode node, BitSet active) {
+        ArrayNode result = node.arrayNode();
+        for (JsonNode element : node) {
+            String tag = listElementTag(element);
+            if (tag == null) {
+                result.add(resolve(element, active));
+            } else if (isActive(tag, 0, tag.length(), active)) {
+                result.add(resolveObject((ObjectNode) element, active, true));
+            }
+        }
+        return result;
+    }
+
+    private JsonNode resolveObject(ObjectNode node, BitSet active, boolean skipTagMarker) {
+        Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
+        if (skipTagMarker) {
+            fields.next();
+        }
+        Map<String, JsonNode> resultFields = new LinkedHashMap<>();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            String fieldName = field.getKey();
+            int dot2 = fieldName.startsWith(".") ? fieldName.indexOf('.', 1) : -1;
+            if (dot2 != -1) {
+                if (isActive(fieldName, 1, dot2, active)) {
+                    resultFields.put(fieldName.substring(dot2 + 1), resolve(field.getValue(), active));
+                }
+            } else if (!resultFields.containsKey(fieldName)) {
+                resultFields.put(fieldName, resolve(field.getValue(), active));
+            }
+        }
+        return node.objectNode().setAll(resultFields);
+    }
+
+    private boolean isActive(String key, int start, int end, BitSet active) {
+        int index = tags.indexOf(key, start, end);
+        return index >= 0 && active.get(index);
+    }
+
+    /**
+     * @return The tag if the first child element of the list element consists of a constretto-tag and nothing more ('- .production:')
+     */
+    private static String listElementTag(JsonNode element) {
+        if (element.isObject() && element.size() > 0) {
+            Map.Entry<String, JsonNode> first = element.fields().next();
+            String fieldName = first.getKey();
+            String fieldValue = first.getValue().asText();
+            if (fieldName.startsWith(".") && fieldName.indexOf('.', 1) == -1
+                    && ("null".equals(fieldValue) || "".equals(fieldValue))) {
+                return fieldName.substring(1);
+            }
+        }
+        return null;
+    }
+
+    private static BitSet union(BitSet bits, BitSet other) {
+        if (other == null) {
+            return bits;
+        }
+        BitSet result = bits == null ? new BitSet() : bits;
+        result.or(other);
+        return result;
+    }
+
+    private static BitSet union(BitSet bits, int bit) {
+        BitSet result = bits == null ? new BitSet() : bits;
+        result.set(bit);
+        return result;
+    }
+
+}
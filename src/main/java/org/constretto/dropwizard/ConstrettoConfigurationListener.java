@@ -0,0 +1,17 @@
+package org.constretto.dropwizard;
+
+/**
+ * Notified when the part of the configuration a listener is registered for changes.
+ *
+ * @author kjeivers
+ * @see ConstrettoReloadableConfiguration#addListener(String, ConstrettoConfigurationListener)
+ */
+public interface ConstrettoConfigurationListener<T> {
+
+    /**
+     * @param previous The snapshot that was replaced
+     * @param current The new current snapshot
+     */
+    void onChange(ConstrettoConfigurationSnapshot<T> previous, ConstrettoConfigurationSnapshot<T> current);
+
+}
@@ -0,0 +1,291 @@
+package org.constretto.dropwizard;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Per-phase measurements of building the configuration: wall time and bytes allocated by the building thread,
+ * the size of the source, the number of nodes in the filtered tree and the number of tagged keys kept and dropped.
+ *
+ * The configuration is built before the MetricRegistry of the environment is available, so the measurements
+ * are collected here and registered as timers and gauges by ConstrettoBundle.run(). The timers are updated
+ * by every build, including reloads; the gauges report the last successful build.
+ *
+ * In STREAMING mode the tags are filtered while parsing, so the time of the filter is included in PARSE.
+ *
+ * @author kjeivers
+ */
+public class ConstrettoConfigurationMetrics {
+
+    /**
+     * The phases of building the configuration
+     */
+    public enum Phase {
+        /**
+         * Reading the configuration source
+         */
+        READ,
+        /**
+         * Rewriting the '@' tags of the source to '.'
+         */
+        REWRITE,
+        /**
+         * Parsing the YAML (or reading the cached tree), and reading and parsing the included fragments
+         */
+        PARSE,
+        /**
+         * Filtering the parsed tree (TREE and PARALLEL modes). In PARALLEL mode, only the allocations
+         * of the building thread are counted.
+         */
+        FILTER,
+        /**
+         * Applying the system property overrides and binding the tree to the configuration class
+         */
+        BIND,
+        /**
+         * Validating the configuration object
+         */
+        VALIDATE
+    }
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    private static final boolean ALLOCATION_SUPPORTED = isAllocationSupported();
+    private static final ThreadLocal<Recording> CURRENT = new ThreadLocal<>();
+
+    private final Map<Phase, Timer> timers = new EnumMap<>(Phase.class);
+    private volatile Recording last = new Recording();
+
+    public ConstrettoConfigurationMetrics() {
+        for (Phase phase : Phase.values()) {
+            timers.put(phase, new Timer());
+        }
+    }
+
+    /**
+     * Registers the timers and gauges under 'constretto.configuration'
+     *
+     * @param registry The registry to add the metrics to
+     */
+    public void register(MetricRegistry registry) {
+        for (final Phase phase : Phase.values()) {
+            String phaseName = phase.name().toLowerCase(Locale.ENGLISH);
+            registry.register(name("constretto", "configuration", phaseName), timers.get(phase));
+            registry.register(name("constretto", "configuration", phaseName, "allocated-bytes"), new Gauge<Long>() {
+                @Override
+                public Long getValue() {
+                    return last.allocated[phase.ordinal()];
+                }
+            });
+        }
+        registry.register(name("constretto", "configuration", "source-bytes"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return last.sourceBytes;
+            }
+        });
+        registry.register(name("constretto", "configuration", "nodes"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return last.nodes;
+            }
+        });
+        registry.register(name("constretto", "configuration", "tagged-keys", "kept"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return last.keptTags;
+            }
+        });
+        registry.register(name("constretto", "configuration", "tagged-keys", "dropped"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return last.droppedTags;
+            }
+        });
+    }
+
+    /**
+     * @param phase A phase of building the configuration
+     * @return The timer of the phase
+     */
+    public Timer getTimer(Phase phase) {
+        return timers.get(phase);
+    }
+
+    /**
+     * @return The measurements of the last successful build
+     */
+    Recording getLast() {
+        return last;
+    }
+
+    /**
+     * Starts recording a build on the current thread
+     */
+    Recording start() {
+        Recording recording = new Recording();
+        CURRENT.set(recording);
+        return recording;
+    }
+
+    /**
+     * Continues a recording started on another thread on the current thread
+     */
+    Recording resume(Recording recording) {
+        CURRENT.set(recording);
+        return recording;
+    }
+
+    /**
+     * Stops recording on the current thread, without publishing the recording
+     */
+    void suspend() {
+        CURRENT.remove();
+    }
+
+    /**
+     * Stops recording on the current thread, and publishes the recording if the build succeeded
+     */
+    void finish(Recording recording, boolean succeeded) {
+        CURRENT.remove();
+        if (succeeded) {
+            for (Phase phase : Phase.values()) {
+                if (recording.recorded[phase.ordinal()]) {
+                    timers.get(phase).update(recording.nanos[phase.ordinal()], TimeUnit.NANOSECONDS);
+                }
+            }
+            last = recording;
+        }
+    }
+
+    /**
+     * @return The recording of the build on the current thread, or null if no build is recorded
+     */
+    static Recording current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * @return The number of bytes allocated by the current thread, or 0 if that is not supported by the JVM
+     */
+    static long allocatedBytes() {
+        return ALLOCATION_SUPPORTED
+                ? ((com.sun.management.ThreadMXBean) THREADS).getThreadAllocatedBytes(Thread.currentThread().getId())
+                : 0;
+    }
+
+    private static boolean isAllocationSupported() {
+        try {
+            return THREADS instanceof com.sun.management.ThreadMXBean
+                    && ((com.sun.management.ThreadMXBean) THREADS).isThreadAllocatedMemorySupported()
+                    && ((com.sun.management.ThreadMXBean) THREADS).isThreadAllocatedMemoryEnabled();
+        } catch (LinkageError | UnsupportedOperationException e) {
+            return false;
+        }
+    }
+
+    /**
+     * The measurements of a single build, made by one thread at a time
+     */
+    static final class Recording {
+        private final long[] nanos = new long[Phase.values().length];
+        private final long[] allocated = new long[Phase.values().length];
+        private final boolean[] recorded = new boolean[Phase.values().length];
+        private long sourceBytes;
+        private long nodes;
+        private long keptTags;
+        private long droppedTags;
+
+        private long startNanos;
+        private long startAllocated;
+        private long nestedNanos;
+        private long nestedAllocated;
+        private long startNestedNanos;
+        private long startNestedAllocated;
+
+        /**
+         * Starts measuring a phase
+         */
+        void begin() {
+            startNestedNanos = nestedNanos;
+            startNestedAllocated = nestedAllocated;
+            startAllocated = allocatedBytes();
+            startNanos = System.nanoTime();
+        }
+
+        /**
+         * Ends measuring the phase, excluding the nested measurements added since begin()
+         */
+        void end(Phase phase) {
+            long elapsed = System.nanoTime() - startNanos - (nestedNanos - startNestedNanos);
+            long allocatedDelta = allocatedBytes() - startAllocated - (nestedAllocated - startNestedAllocated);
+            record(phase, elapsed, allocatedDelta);
+        }
+
+        /**
+         * Adds a measurement made within the phase that is currently measured
+         */
+        void add(Phase phase, long elapsedNanos, long allocatedBytes) {
+            nestedNanos += elapsedNanos;
+            nestedAllocated += allocatedBytes;
+            record(phase, elapsedNanos, allocatedBytes);
+        }
+
+        void addSourceBytes(long bytes) {
+            sourceBytes += bytes;
+        }
+
+        void setNodes(long nodes) {
+            this.nodes = nodes;
+        }
+
+        void setTaggedKeys(long kept, long dropped) {
+            this.keptTags = kept;
+            this.droppedTags = dropped;
+        }
+
+        long getNanos(Phase phase) {
+            return nanos[phase.ordinal()];
+        }
+
+        long getAllocated(Phase phase) {
+            return allocated[phase.ordinal()];
+        }
+
+        boolean isRecorded(Phase phase) {
+            return recorded[phase.ordinal()];
+        }
+
+        long getSourceBytes() {
+            return sourceBytes;
+        }
+
+        long getNodes() {
+            return nodes;
+        }
+
+        long getKeptTags() {
+            return keptTags;
+        }
+
+        long getDroppedTags() {
+            return droppedTags;
+        }
+
+        private void record(Phase phase, long elapsedNanos, long allocatedBytes) {
+            nanos[phase.ordinal()] += elapsedNanos;
+            allocated[phase.ordinal()] += Math.max(0, allocatedBytes);
+            recorded[phase.ordinal()] = true;
+        }
+    }
+
+}
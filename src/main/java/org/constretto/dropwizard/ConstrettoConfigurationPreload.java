@@ -0,0 +1,168 @@
+package org.constretto.dropwizard;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import io.dropwizard.configuration.ConfigurationException;
+import io.dropwizard.configuration.ConfigurationSourceProvider;
+import org.constretto.resolver.ConfigurationContextResolver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Reads, rewrites, parses and filters the configuration on a background thread while the rest of the
+ * application is initialized. The first build of the same source, path and active tags takes the filtered
+ * tree instead of reading the source again, and only binds and validates it. A build of another source,
+ * path or set of tags, and any later build, reads the source as usual.
+ *
+ * A failed preload fails the build that takes it, with the same exception the build would have thrown.
+ * The preloaded tree is not bound, so the system property overrides are applied by the factory that takes it,
+ * with the property prefix of that factory.
+ *
+ * @author kjeivers
+ */
+final class ConstrettoConfigurationPreload {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ConstrettoConfigurationPreload.class);
+
+    private final ConfigurationSourceProvider sourceProvider;
+    private final String path;
+    private final CompletableFuture<Result> result = new CompletableFuture<>();
+    private final AtomicBoolean taken = new AtomicBoolean();
+
+    private ConstrettoConfigurationPreload(ConfigurationSourceProvider sourceProvider, String path) {
+        this.sourceProvider = sourceProvider;
+        this.path = path;
+    }
+
+    /**
+     * Starts reading the configuration on a new daemon thread
+     *
+     * @param reader Reads and filters the configuration
+     * @param tagResolver The resolver of the active constretto tags
+     * @param sourceProvider the provider to to use for reading configuration files
+     * @param path the path of the configuration file
+     * @param metrics The measurements to record the preload in, or null
+     * @return The preload in progress
+     */
+    static ConstrettoConfigurationPreload start(final ConstrettoConfigurationReader reader,
+                                                final ConfigurationContextResolver tagResolver,
+                                                ConfigurationSourceProvider sourceProvider, String path,
+                                                final ConstrettoConfigurationMetrics metrics) {
+        final ConstrettoConfigurationPreload preload = new ConstrettoConfigurationPreload(sourceProvider, path);
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                preload.read(reader, tagResolver, metrics);
+            }
+        }, "constretto-preload");
+        thread.setDaemon(true);
+        thread.start();
+        return preload;
+    }
+
+    private void read(ConstrettoConfigurationReader reader, ConfigurationContextResolver tagResolver,
+                      ConstrettoConfigurationMetrics metrics) {
+        ConstrettoConfigurationMetrics.Recording recording =
+                metrics == null ? new ConstrettoConfigurationMetrics.Recording() : metrics.start();
+        try {
+            List<String> activeTags = new ArrayList<>(tagResolver.getTags());
+            ConstrettoConfigurationFactory.Source source = new ConstrettoConfigurationFactory.Source(sourceProvider, path);
+            result.complete(new Result(source, reader.readTree(source, activeTags, recording), activeTags, recording));
+        } catch (Throwable e) {
+            result.completeExceptionally(e);
+        } finally {
+            if (metrics != null) {
+                metrics.suspend();
+            }
+        }
+    }
+
+    /**
+     * Waits for the preload, and takes its result if it matches the build. The result is only taken once.
+     *
+     * @param sourceProvider the provider the build reads from
+     * @param path the path of the configuration file of the build
+     * @param activeTags The active tags of the build
+     * @return The preloaded tree, or null if the preload does not match the build or has already been taken
+     * @throws IOException            if there was an error reading the file
+     * @throws ConfigurationException if there was an error parsing the file
+     */
+    Result take(ConfigurationSourceProvider sourceProvider, String path, Collection<String> activeTags)
+            throws IOException, ConfigurationException {
+        if (!taken.compareAndSet(false, true)) {
+            return null;
+        }
+        if (sourceProvider != this.sourceProvider || !path.equals(this.path)) {
+            LOG.warn("The configuration was preloaded from {}, but is built from {}; building it again", this.path, path);
+            return null;
+        }
+        Result preloaded = join();
+        if (!new HashSet<>(preloaded.activeTags).equals(new HashSet<>(activeTags))) {
+            LOG.warn("The configuration was preloaded for the tags {}, but the active tags are {}; building it again",
+                    preloaded.activeTags, activeTags);
+            return null;
+        }
+        return preloaded;
+    }
+
+    private Result join() throws IOException, ConfigurationException {
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the configuration " + path);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof ConfigurationException) {
+                throw (ConfigurationException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    /**
+     * A preloaded tree, the source it was read from, and the measurements of reading it
+     */
+    static final class Result {
+        private final ConstrettoConfigurationFactory.Source source;
+        private final JsonNode node;
+        private final List<String> activeTags;
+        private final ConstrettoConfigurationMetrics.Recording recording;
+
+        Result(ConstrettoConfigurationFactory.Source source, JsonNode node, List<String> activeTags,
+               ConstrettoConfigurationMetrics.Recording recording) {
+            this.source = source;
+            this.node = node;
+            this.activeTags = activeTags;
+            this.recording = recording;
+        }
+
+        ConstrettoConfigurationFactory.Source getSource() {
+            return source;
+        }
+
+        JsonNode getNode() {
+            return node;
+        }
+
+        ConstrettoConfigurationMetrics.Recording getRecording() {
+            return recording;
+        }
+    }
+
+}
@@ -0,0 +1,466 @@
+package org.constretto.dropwizard;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.dataformat.yaml.snakeyaml.error.Mark;
+import com.fasterxml.jackson.dataformat.yaml.snakeyaml.error.MarkedYAMLException;
+import com.fasterxml.jackson.dataformat.yaml.snakeyaml.error.YAMLException;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.ByteStreams;
+import io.dropwizard.configuration.ConfigurationException;
+import io.dropwizard.configuration.ConfigurationSourceProvider;
+import io.dropwizard.configuration.YamlConfigurationFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Reads, parses and filters the constretto-tagged configuration, and expands its includes, without binding it.
+ * The configuration factory reads each build with it, and the preload reads the configuration with it on a
+ * background thread, leaving the binding, and the system property overrides, to the factory that takes the tree.
+ *
+ * @author kjeivers
+ */
+final class ConstrettoConfigurationReader {
+
+    private final ObjectMapper mapper;
+    private final Map<ConstrettoSourceFormat, JsonFactory> parserFactories = new EnumMap<>(ConstrettoSourceFormat.class);
+    private final ConstrettoIncludes includes;
+    private ConstrettoConfigurationFactory.FilterMode filterMode = ConstrettoConfigurationFactory.FilterMode.STREAMING;
+    private int parallelThreshold = ConstrettoParallelTreeFilter.DEFAULT_THRESHOLD;
+    private ConstrettoConfigurationCache cache;
+    private ConstrettoConfigurationMetrics metrics;
+    private boolean retainSource;
+
+    /**
+     * @param mapper The mapper to parse the configuration with
+     */
+    ConstrettoConfigurationReader(ObjectMapper mapper) {
+        this.mapper = mapper;
+        for (ConstrettoSourceFormat format : ConstrettoSourceFormat.values()) {
+            parserFactories.put(format, format.createFactory());
+        }
+        this.includes = new ConstrettoIncludes(mapper, parserFactories);
+    }
+
+    /**
+     * @param filterMode How to filter the configuration (default STREAMING)
+     * @return this reader
+     */
+    ConstrettoConfigurationReader withFilterMode(ConstrettoConfigurationFactory.FilterMode filterMode) {
+        this.filterMode = checkNotNull(filterMode);
+        return this;
+    }
+
+    /**
+     * @param parallelThreshold The minimum number of children of an object or array before they are
+     *                          filtered in parallel in PARALLEL mode (default 64)
+     * @return this reader
+     */
+    ConstrettoConfigurationReader withParallelThreshold(int parallelThreshold) {
+        this.parallelThreshold = parallelThreshold;
+        return this;
+    }
+
+    /**
+     * @param cache A persistent cache of filtered configuration trees, or null to disable caching
+     * @return this reader
+     */
+    ConstrettoConfigurationReader withCache(ConstrettoConfigurationCache cache) {
+        this.cache = cache;
+        return this;
+    }
+
+    /**
+     * @param metrics The measurements the number of nodes of each tree is recorded for, or null
+     * @return this reader
+     */
+    ConstrettoConfigurationReader withMetrics(ConstrettoConfigurationMetrics metrics) {
+        this.metrics = metrics;
+        return this;
+    }
+
+    /**
+     * @param retainSource true to keep the bytes read with the source, so the configuration can be resolved
+     *                     for other tags; otherwise the source is streamed
+     * @return this reader
+     */
+    ConstrettoConfigurationReader withSourceRetained(boolean retainSource) {
+        this.retainSource = retainSource;
+        return this;
+    }
+
+    /**
+     * @return The includes of the configurations read, which keep the parsed fragments
+     */
+    ConstrettoIncludes getIncludes() {
+        return includes;
+    }
+
+    /**
+     * Stops the threads that read the included fragments
+     */
+    void shutdown() {
+        includes.shutdown();
+    }
+
+    /**
+     * Reads, rewrites, parses and filters the configuration, and expands its includes, without binding it.
+     * The included fragments that are read are kept with the source, and so are the bytes if the source is retained.
+     *
+     * @param source The source to read
+     * @param activeTags The set of active constretto tags
+     * @param recording The measurements of the build
+     * @return The filtered tree
+     * @throws IOException            if there is an error reading the file
+     * @throws ConfigurationException if there is an error parsing the file, or the file is empty
+     */
+    JsonNode readTree(ConstrettoConfigurationFactory.Source source, Collection<String> activeTags, ConstrettoConfigurationMetrics.Recording recording)
+            throws IOException, ConfigurationException {
+        final String path = source.getPath();
+        try (InputStream input = source.getProvider().open(path)) {
+            final byte[] content = cache != null || retainSource ? ByteStreams.toByteArray(input) : null;
+            if (retainSource) {
+                source.keep(content);
+            }
+            final ConstrettoTags tags = ConstrettoTags.of(activeTags);
+            final ConstrettoTags.Counts counts = new ConstrettoTags.Counts();
+            JsonNode node = cache == null
+                    ? readFilteredTree(path, content == null ? input : new ByteArrayInputStream(content), tags, counts, recording)
+                    : readCachedTree(path, content, activeTags, tags, counts, recording);
+            if (node == null) {
+                throw emptyConfiguration(path);
+            }
+            node = checkPrerendered(path, node, activeTags);
+            recording.begin();
+            node = includes.expand(source.getProvider(), path, node, activeTags, source.getFragments());
+            recording.end(ConstrettoConfigurationMetrics.Phase.PARSE);
+            if (metrics != null) {
+                recording.setTaggedKeys(counts.kept(), counts.dropped());
+                recording.setNodes(countNodes(node));
+            }
+            return node;
+        } catch (YAMLException e) {
+            StringBuilder sb = new StringBuilder(e.getMessage());
+            if (e instanceof MarkedYAMLException) {
+                Mark mark = ((MarkedYAMLException) e).getProblemMark();
+                sb.append(" at line: ").append(mark.getLine() + 1)
+                        .append(", column: ").append(mark.getColumn() + 1);
+            }
+            throw new ConstrettoConfigurationFactory.ConstrettoFilterConfigurationException(path, ImmutableSet.of(sb.toString()), e);
+        }
+    }
+
+    /**
+     * The ConfigurationParsingException of an empty configuration can only be created by Dropwizard,
+     * so an empty source is handed to a default ConfigurationFactory to get the same type and message.
+     *
+     * @param path The path of the empty configuration
+     * @return The exception the default ConfigurationFactory throws for an empty configuration
+     */
+    private ConfigurationException emptyConfiguration(String path) throws IOException {
+        try {
+            new YamlConfigurationFactory<>(JsonNode.class, null, mapper, "dw").build(new ConfigurationSourceProvider() {
+                @Override
+                public InputStream open(String path) {
+                    return new ByteArrayInputStream(new byte[0]);
+                }
+            }, path);
+        } catch (ConfigurationException e) {
+            return e;
+        }
+        throw new IllegalStateException("The empty configuration " + path + " was accepted");
+    }
+
+    /**
+     * Reads the filtered tree from the cache, or filters the source and stores the result in the cache
+     *
+     * @param path The path of the configuration
+     * @param source The constretto-tagged YAML source
+     * @param activeTags The set of active constretto tags
+     * @param tags The compiled set of active constretto tags
+     * @param counts The tagged keys kept and dropped by filtering the source
+     * @param recording The measurements of the build
+     * @return The filtered tree, or null if the source is empty
+     * @throws IOException if there is an error parsing the source
+     */
+    private JsonNode readCachedTree(String path, byte[] source, Collection<String> activeTags, ConstrettoTags tags,
+                                    ConstrettoTags.Counts counts,
+                                    ConstrettoConfigurationMetrics.Recording recording) throws IOException {
+        String key = cache.key(path, source, activeTags);
+        recording.begin();
+        JsonNode node = cache.read(key, mapper);
+        recording.end(ConstrettoConfigurationMetrics.Phase.PARSE);
+        if (node == null) {
+            node = readFilteredTree(path, new ByteArrayInputStream(source), tags, counts, recording);
+            if (node != null) {
+                cache.write(key, node, mapper);
+            }
+        }
+        return node;
+    }
+
+    /**
+     * @param path The path of the configuration
+     * @param input The constretto-tagged source
+     * @param activeTags The set of active constretto tags
+     * @param counts The tagged keys kept and dropped by the filter
+     * @param recording The measurements of the build
+     * @return The filtered tree, or null if the source is empty
+     * @throws IOException if there is an error reading or parsing the source
+     */
+    private JsonNode readFilteredTree(String path, InputStream input, ConstrettoTags activeTags, ConstrettoTags.Counts counts,
+                                      ConstrettoConfigurationMetrics.Recording recording) throws IOException {
+        recording.begin();
+        PushbackInputStream source = ConstrettoSourceFormat.pushback(input);
+        ConstrettoSourceFormat format = ConstrettoSourceFormat.detect(path, source);
+        boolean prerendered = format.isPrerendered(source);
+        JsonParser parser = parserFactories.get(format).createParser(source);
+        if (prerendered) {
+            JsonNode node = mapper.readTree(parser);
+            recording.end(ConstrettoConfigurationMetrics.Phase.PARSE);
+            if (node != null && node.has(ConstrettoPrerenderer.MARKER)) {
+                // filtered at build time; the tags are checked by checkPrerendered()
+                return node;
+            }
+            recording.begin();
+            JsonNode filtered = node == null ? null : removeInactiveElements(node, activeTags, counts);
+            recording.end(ConstrettoConfigurationMetrics.Phase.FILTER);
+            return filtered;
+        }
+        switch (filterMode) {
+            case TREE:
+            case PARALLEL:
+                JsonNode node = mapper.readTree(parser);
+                recording.end(ConstrettoConfigurationMetrics.Phase.PARSE);
+                if (node == null) {
+                    return null;
+                }
+                recording.begin();
+                JsonNode filtered = filterMode == ConstrettoConfigurationFactory.FilterMode.PARALLEL
+                        ? new ConstrettoParallelTreeFilter(activeTags, parallelThreshold, ForkJoinPool.commonPool()).filter(node, counts)
+                        : removeInactiveElements(node, activeTags, counts);
+                recording.end(ConstrettoConfigurationMetrics.Phase.FILTER);
+                return filtered;
+            default:
+                JsonNode streamed = mapper.readTree(new ConstrettoTagFilteringParser(parser, activeTags, counts));
+                recording.end(ConstrettoConfigurationMetrics.Phase.PARSE);
+                return streamed;
+        }
+    }
+
+    /**
+     * Checks that a tree pre-rendered by ConstrettoPrerenderer was rendered for the active tags,
+     * and removes the marker of the pre-rendered tree
+     *
+     * @param path The path of the configuration
+     * @param node The filtered tree
+     * @param activeTags The set of active constretto tags
+     * @return The tree without the marker
+     * @throws ConfigurationException if the tree was pre-rendered for other tags
+     */
+    JsonNode checkPrerendered(String path, JsonNode node, Collection<String> activeTags) throws ConfigurationException {
+        JsonNode marker = node.get(ConstrettoPrerenderer.MARKER);
+        if (marker == null) {
+            return node;
+        }
+        Set<String> renderedTags = new TreeSet<>();
+        for (JsonNode tag : marker) {
+            renderedTags.add(tag.asText());
+        }
+        if (!renderedTags.equals(new TreeSet<>(activeTags))) {
+            throw new ConstrettoConfigurationFactory.ConstrettoFilterConfigurationException(path, ImmutableSet.of(
+                    "Configuration is pre-rendered for the tags " + renderedTags
+                            + ", but the active tags are " + new TreeSet<>(activeTags)), null);
+        }
+        ObjectNode result = (ObjectNode) ((ObjectNode) node).objectNode().setAll((ObjectNode) node);
+        result.remove(ConstrettoPrerenderer.MARKER);
+        return result;
+    }
+
+    /**
+     * @return A parser of the format of the source
+     */
+    JsonParser createParser(String path, InputStream input) throws IOException {
+        PushbackInputStream source = ConstrettoSourceFormat.pushback(input);
+        return parserFactories.get(ConstrettoSourceFormat.detect(path, source)).createParser(source);
+    }
+
+    /**
+     * @return The number of nodes in the tree, including the root
+     */
+    private static long countNodes(JsonNode node) {
+        long count = 1;
+        for (JsonNode child : node) {
+            count += countNodes(child);
+        }
+        return count;
+    }
+
+    /**
+     * Filters the tree without modifying it. Containers are only copied where the filtering changes them,
+     * so a subtree without tagged keys is returned as it is, and shared between the source and the result.
+     *
+     * @param node The root node to consider
+     * @param activeTags The set of active constretto tags
+     * @return A JsonNode tree filtered according to the activeTags
+     */
+    JsonNode removeInactiveElements(JsonNode node, Collection<String> activeTags) {
+        return removeInactiveElements(node, ConstrettoTags.of(activeTags), new ConstrettoTags.Counts());
+    }
+
+    /**
+     *
+     * @param node The root node to consider
+     * @param activeTags The compiled set of active constretto tags
+     * @param counts The tagged keys kept and dropped
+     * @return A JsonNode tree filtered according to the activeTags; the node itself if nothing was filtered
+     */
+    private JsonNode removeInactiveElements(JsonNode node, ConstrettoTags activeTags, ConstrettoTags.Counts counts) {
+        switch (node.getNodeType()) {
+            case OBJECT:
+                return removeInactiveObjectElements((ObjectNode) node, activeTags, counts);
+            case ARRAY:
+                return removeInactiveArrayElements((ArrayNode) node, activeTags, counts);
+            default:
+                return node;
+        }
+    }
+
+    /**
+     *
+     * @param node An ArrayNode
+     * @param activeTags The set of active constretto tags
+     * @param counts The tagged keys kept and dropped
+     * @return The elements that should be present according to the constretto tags;
+     * the node itself if all elements are present and unchanged
+     */
+    private JsonNode removeInactiveArrayElements(ArrayNode node, ConstrettoTags activeTags, ConstrettoTags.Counts counts) {
+        List<JsonNode> resultElts = null;
+        for (int i = 0; i < node.size(); i++) {
+            JsonNode child = node.get(i);
+            JsonNode result;
+            if (child.isObject() && child.size() > 0) {
+                Map.Entry<String, JsonNode> firstVal = child.fields().next();
+                String fieldName = firstVal.getKey();
+                String fieldValue = firstVal.getValue().asText();
+                // if the first child element consists of a constretto-tag and nothing more: '-.production'
+                if (fieldName.startsWith(".") && fieldName.indexOf('.', 1) == -1
+                        && ("null".equals(fieldValue) || "".equals(fieldValue)))
+                {
+                    result = counts.count(activeTags.isActive(fieldName, 1, fieldName.length()))
+                            ? removeFirstChild(child, removeInactiveElements(child, activeTags, counts))
+                            : null;
+                } else {
+                    result = removeInactiveElements(child, activeTags, counts);
+                }
+            } else {
+                result = removeInactiveElements(child, activeTags, counts);
+            }
+            if (resultElts == null && result != child) {
+                // the first change; copy the unchanged elements before it
+                resultElts = new ArrayList<>(node.size());
+                for (int j = 0; j < i; j++) {
+                    resultElts.add(node.get(j));
+                }
+            }
+            if (resultElts != null && result != null) {
+                resultElts.add(result);
+            }
+        }
+        return resultElts == null ? node : node.arrayNode().addAll(resultElts);
+    }
+
+    /**
+     *
+     * @param node An ObjectNode
+     * @param activeTags The set of active constretto tags
+     * @param counts The tagged keys kept and dropped
+     * @return An ObjectNode with only the active child elements; the node itself if it has no tagged
+     * child elements and all child elements are unchanged
+     */
+    private JsonNode removeInactiveObjectElements(ObjectNode node, ConstrettoTags activeTags, ConstrettoTags.Counts counts) {
+        Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
+        Map<String, JsonNode> resultFields = null;
+        int unchanged = 0;
+        while(fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            String fieldName = field.getKey();
+            int dot2 = fieldName.startsWith(".") ? fieldName.indexOf('.', 1) : -1;
+            if (resultFields == null) {
+                if (dot2 == -1) {
+                    JsonNode result = removeInactiveElements(field.getValue(), activeTags, counts);
+                    if (result == field.getValue()) {
+                        unchanged++;
+                        continue;
+                    }
+                    resultFields = firstFields(node, unchanged);
+                    resultFields.put(fieldName, result);
+                    continue;
+                }
+                resultFields = firstFields(node, unchanged);
+            }
+            if (dot2 != -1) {
+                if (counts.count(activeTags.isActive(fieldName, 1, dot2))) {
+                    String resultFieldName = fieldName.substring(dot2 + 1);
+                    resultFields.put(resultFieldName, removeInactiveElements(field.getValue(), activeTags, counts));
+                }
+            } else if (!resultFields.containsKey(fieldName)) {
+                resultFields.put(fieldName, removeInactiveElements(field.getValue(), activeTags, counts));
+            }
+        }
+        return resultFields == null ? node : node.objectNode().setAll(resultFields);
+    }
+
+    /**
+     * @return The first count fields of the node, in order
+     */
+    private static Map<String, JsonNode> firstFields(ObjectNode node, int count) {
+        Map<String, JsonNode> result = new LinkedHashMap<>();
+        Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
+        for (int i = 0; i < count; i++) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            result.put(field.getKey(), field.getValue());
+        }
+        return result;
+    }
+
+    /**
+     * Removes the first child element of the filtered node, without modifying the source node
+     *
+     * @param source The source node
+     * @param filtered The filtered source node; the source node itself if nothing was filtered
+     * @return The filtered node without its first child element
+     */
+    private static JsonNode removeFirstChild(JsonNode source, JsonNode filtered) {
+        // a shallow copy of an unchanged source; the child elements are shared
+        ObjectNode result = filtered == source
+                ? (ObjectNode) ((ObjectNode) source).objectNode().setAll((ObjectNode) source)
+                : (ObjectNode) filtered;
+        Iterator<Map.Entry<String, JsonNode>> fields = result.fields();
+        if (fields.hasNext()) {
+            fields.next();
+            fields.remove();
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,124 @@
+package org.constretto.dropwizard;
+
+import io.dropwizard.lifecycle.Managed;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the configuration file and rebuilds the configuration when the file changes.
+ *
+ * Change events are debounced, so that an editor writing the file in several steps
+ * results in a single reload. The rebuilt configuration is filtered and validated before it is published,
+ * and an invalid configuration is rejected, leaving the previous snapshot in place.
+ *
+ * @author kjeivers
+ */
+class ConstrettoConfigurationReloader implements Managed {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ConstrettoConfigurationReloader.class);
+
+    private final ConstrettoConfigurationFactory<?> factory;
+    private final ConstrettoReloadableConfiguration<?> configuration;
+    private final Path file;
+    private final long debounceMillis;
+
+    private WatchService watchService;
+    private Thread thread;
+
+    /**
+     * @param factory The factory that built the current configuration
+     * @param configuration The holder the factory publishes the configuration to
+     * @param file The configuration file to watch
+     * @param debounceMillis How long the file must stay unchanged before it is reloaded
+     */
+    ConstrettoConfigurationReloader(ConstrettoConfigurationFactory<?> factory, ConstrettoReloadableConfiguration<?> configuration,
+                                    Path file, long debounceMillis) {
+        this.factory = factory;
+        this.configuration = configuration;
+        this.file = file.toAbsolutePath();
+        this.debounceMillis = debounceMillis;
+    }
+
+    @Override
+    public void start() throws IOException {
+        watchService = file.getFileSystem().newWatchService();
+        file.getParent().register(watchService,
+                StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                watch();
+            }
+        }, "constretto-reload");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void stop() throws Exception {
+        if (watchService != null) {
+            watchService.close();
+        }
+        if (thread != null) {
+            thread.join(TimeUnit.SECONDS.toMillis(5));
+        }
+    }
+
+    private void watch() {
+        try {
+            while (true) {
+                if (affectsFile(watchService.take())) {
+                    // wait until the file has been left alone for the debounce period
+                    WatchKey key;
+                    while ((key = watchService.poll(debounceMillis, TimeUnit.MILLISECONDS)) != null) {
+                        affectsFile(key);
+                    }
+                    reload();
+                }
+            }
+        } catch (ClosedWatchServiceException | InterruptedException e) {
+            LOG.debug("Stopped watching {}", file);
+        }
+    }
+
+    /**
+     * Consumes the events of the key
+     *
+     * @return true if any of the events concern the configuration file
+     */
+    private boolean affectsFile(WatchKey key) {
+        boolean affected = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW || file.getFileName().equals(event.context())) {
+                affected = true;
+            }
+        }
+        key.reset();
+        return affected;
+    }
+
+    void reload() {
+        try {
+            ConstrettoConfigurationSnapshot<?> previous = configuration.getSnapshot();
+            factory.reload();
+            ConstrettoConfigurationSnapshot<?> current = configuration.getSnapshot();
+            if (previous != null && current != null && current != previous) {
+                LOG.info("Reloaded configuration from {}, changed: {}", file, current.diff(previous));
+            } else {
+                LOG.info("Reloaded configuration from {}", file);
+            }
+        } catch (Exception e) {
+            LOG.error("Rejected changed configuration in {}, keeping the previous configuration", file, e);
+        }
+    }
+
+}
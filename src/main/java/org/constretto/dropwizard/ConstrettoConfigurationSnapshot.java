@@ -0,0 +1,161 @@
+package org.constretto.dropwizard;
+
+import com.fasterxml.jackson.core.JsonPointer;
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * An immutable snapshot of a loaded and validated configuration,
+ * along with the filtered tree it was bound from, if the tree is kept.
+ *
+ * @author kjeivers
+ */
+public final class ConstrettoConfigurationSnapshot<T> {
+
+    private final long version;
+    private final long loadedAt;
+    private final T configuration;
+    private final JsonNode tree;
+    private ConstrettoTreeHashes hashes;
+    private volatile ConstrettoFlatConfiguration flat;
+
+    ConstrettoConfigurationSnapshot(long version, long loadedAt, T configuration, JsonNode tree) {
+        this.version = version;
+        this.loadedAt = loadedAt;
+        this.configuration = configuration;
+        this.tree = tree;
+    }
+
+    /**
+     * @return The sequence number of the snapshot, starting at 1 for the configuration loaded at startup
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return The time the snapshot was published, in milliseconds since the epoch
+     */
+    public long getLoadedAt() {
+        return loadedAt;
+    }
+
+    /**
+     * @return The validated configuration
+     */
+    public T getConfiguration() {
+        return configuration;
+    }
+
+    /**
+     * @return The filtered tree (including system property overrides) the configuration was bound from,
+     * or null if the tree is not kept. Identical subtrees are shared within the tree, which must not be modified.
+     */
+    public JsonNode getTree() {
+        return tree;
+    }
+
+    /**
+     * @return A flat view of the values of the tree, for reading settings by key on hot code paths.
+     * The view is created on first use.
+     * @throws IllegalStateException if the tree is not kept
+     */
+    public ConstrettoFlatConfiguration getFlat() {
+        ConstrettoFlatConfiguration result = flat;
+        if (result == null) {
+            checkState(tree != null, "The configuration tree is not kept; enable it with ConstrettoBundle.withConfigurationTree()");
+            // racing threads may each create a view; they are equal and immutable
+            result = ConstrettoFlatConfiguration.of(tree);
+            flat = result;
+        }
+        return result;
+    }
+
+    /**
+     * @param previous An earlier snapshot
+     * @param path A JSON pointer, e.g. '/database/url'
+     * @return true if the value at the path differs from the value in the previous snapshot,
+     * or if either snapshot has no tree to compare
+     */
+    public boolean hasChanged(ConstrettoConfigurationSnapshot<?> previous, String path) {
+        JsonPointer pointer = JsonPointer.compile(path);
+        if (tree == null || previous.tree == null) {
+            return true;
+        }
+        return !unchanged(previous.tree.at(pointer), tree.at(pointer), previous.hashes(), hashes());
+    }
+
+    /**
+     * @param previous An earlier snapshot
+     * @return The JSON pointers of the values that have been changed, added or removed since the previous snapshot,
+     * as specific as possible. Subtrees with equal hashes are compared, but not searched for changes.
+     * If either snapshot has no tree to compare, the whole configuration ('') is reported as changed.
+     */
+    public List<String> diff(ConstrettoConfigurationSnapshot<?> previous) {
+        List<String> changes = new ArrayList<>();
+        if (tree == null || previous.tree == null) {
+            changes.add("");
+            return changes;
+        }
+        diff("", previous.tree, tree, previous.hashes(), hashes(), changes);
+        return changes;
+    }
+
+    private static void diff(String path, JsonNode before, JsonNode after,
+                             ConstrettoTreeHashes beforeHashes, ConstrettoTreeHashes afterHashes, List<String> changes) {
+        if (unchanged(before, after, beforeHashes, afterHashes)) {
+            return;
+        }
+        if (before != null && after != null && before.isObject() && after.isObject()) {
+            Iterator<Map.Entry<String, JsonNode>> fields = before.fields();
+            while (fields.hasNext()) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                diff(path + "/" + escape(field.getKey()), field.getValue(), after.get(field.getKey()),
+                        beforeHashes, afterHashes, changes);
+            }
+            Iterator<String> names = after.fieldNames();
+            while (names.hasNext()) {
+                String name = names.next();
+                if (!before.has(name)) {
+                    changes.add(path + "/" + escape(name));
+                }
+            }
+        } else if (before != null && after != null && before.isArray() && after.isArray() && before.size() == after.size()) {
+            for (int i = 0; i < before.size(); i++) {
+                diff(path + "/" + i, before.get(i), after.get(i), beforeHashes, afterHashes, changes);
+            }
+        } else {
+            changes.add(path);
+        }
+    }
+
+    /**
+     * Different values may have equal hashes, so equal hashes are confirmed by comparing the values.
+     * Unequal hashes always mean a change, which is how most of the tree is told apart without comparing it.
+     */
+    private static boolean unchanged(JsonNode before, JsonNode after,
+                                     ConstrettoTreeHashes beforeHashes, ConstrettoTreeHashes afterHashes) {
+        if (beforeHashes.get(before) != afterHashes.get(after)) {
+            return false;
+        }
+        return before == null ? after == null : before.equals(after);
+    }
+
+    private static String escape(String fieldName) {
+        return fieldName.replace("~", "~0").replace("/", "~1");
+    }
+
+    private synchronized ConstrettoTreeHashes hashes() {
+        if (hashes == null) {
+            hashes = new ConstrettoTreeHashes(tree);
+        }
+        return hashes;
+    }
+
+}
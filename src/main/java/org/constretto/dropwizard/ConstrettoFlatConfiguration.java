@@ -0,0 +1,338 @@
+package org.constretto.dropwizard;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.constretto.ConfigurationStore;
+import org.constretto.model.ConfigurationValue;
+import org.constretto.model.TaggedPropertySet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.regex.Pattern;
+
+/**
+ * An immutable, flat view of the scalar values of a filtered configuration tree, for reading settings by key
+ * on hot code paths.
+ *
+ * The keys are the dotted paths of the values, with the index of list elements in brackets,
+ * e.g. 'server.port' or 'database.hosts[1].name'. The values are stored in primitive arrays of an
+ * open-addressing hash table of interned keys, so the getters neither box nor allocate.
+ *
+ * Text that is a number or a boolean, such as a quoted YAML value or a system property override
+ * ('-Ddw.server.port=8081'), is parsed when the view is created, so the typed getters read it like
+ * the unquoted value. getString() returns the text either way.
+ *
+ * The view can also be added to a constretto-core ConstrettoConfiguration, see asConfigurationStore().
+ *
+ * @author kjeivers
+ */
+public final class ConstrettoFlatConfiguration {
+
+    private static final byte NULL = 0;
+    private static final byte LONG = 1;
+    private static final byte DOUBLE = 2;
+    private static final byte BOOLEAN = 3;
+    private static final byte STRING = 4;
+
+    private static final Pattern INTEGER = Pattern.compile("[-+]?[0-9]+");
+    private static final Pattern DECIMAL = Pattern.compile("[-+]?([0-9]+(\\.[0-9]*)?|\\.[0-9]+)([eE][-+]?[0-9]+)?");
+
+    private final String[] keys;
+    private final byte[] types;
+    private final long[] values;
+    private final String[] texts;
+    private final String[] order;
+    private final int mask;
+
+    private ConstrettoFlatConfiguration(List<String> names, List<JsonNode> nodes) {
+        int capacity = Integer.highestOneBit(Math.max(2, names.size() * 2) - 1) << 1;
+        keys = new String[capacity];
+        types = new byte[capacity];
+        values = new long[capacity];
+        texts = new String[capacity];
+        mask = capacity - 1;
+        List<String> distinct = new ArrayList<>(names.size());
+        for (int i = 0; i < names.size(); i++) {
+            String key = names.get(i).intern();
+            JsonNode node = nodes.get(i);
+            int slot = slot(key);
+            if (keys[slot] == null) {
+                // a dotted field name may repeat the key of a nested field; the last value wins
+                distinct.add(key);
+            }
+            keys[slot] = key;
+            texts[slot] = node.isNull() ? null : node.asText();
+            if (node.isNull()) {
+                types[slot] = NULL;
+            } else if (node.isIntegralNumber() && node.canConvertToLong()) {
+                types[slot] = LONG;
+                values[slot] = node.longValue();
+            } else if (node.isNumber()) {
+                types[slot] = DOUBLE;
+                values[slot] = Double.doubleToRawLongBits(node.doubleValue());
+            } else if (node.isBoolean()) {
+                types[slot] = BOOLEAN;
+                values[slot] = node.booleanValue() ? 1 : 0;
+            } else {
+                types[slot] = parse(texts[slot], slot);
+            }
+        }
+        order = distinct.toArray(new String[distinct.size()]);
+    }
+
+    /**
+     * Parses a text that is a number or a boolean into the value of the slot
+     *
+     * @return The type of the text
+     */
+    private byte parse(String text, int slot) {
+        if (INTEGER.matcher(text).matches()) {
+            try {
+                values[slot] = Long.parseLong(text);
+                return LONG;
+            } catch (NumberFormatException e) {
+                // out of the range of long; read as a double
+            }
+        }
+        if (DECIMAL.matcher(text).matches()) {
+            values[slot] = Double.doubleToRawLongBits(Double.parseDouble(text));
+            return DOUBLE;
+        } else if (text.equalsIgnoreCase("true") || text.equalsIgnoreCase("false")) {
+            values[slot] = text.equalsIgnoreCase("true") ? 1 : 0;
+            return BOOLEAN;
+        }
+        return STRING;
+    }
+
+    /**
+     * @param tree A filtered configuration tree
+     * @return The flat view of the scalar values of the tree
+     */
+    public static ConstrettoFlatConfiguration of(JsonNode tree) {
+        List<String> names = new ArrayList<>();
+        List<JsonNode> nodes = new ArrayList<>();
+        flatten("", tree, names, nodes);
+        return new ConstrettoFlatConfiguration(names, nodes);
+    }
+
+    private static void flatten(String prefix, JsonNode node, List<String> names, List<JsonNode> nodes) {
+        if (node.isObject()) {
+            Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
+            while (fields.hasNext()) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                flatten(prefix.isEmpty() ? field.getKey() : prefix + "." + field.getKey(), field.getValue(), names, nodes);
+            }
+        } else if (node.isArray()) {
+            for (int i = 0; i < node.size(); i++) {
+                flatten(prefix + "[" + i + "]", node.get(i), names, nodes);
+            }
+        } else if (!node.isMissingNode()) {
+            names.add(prefix);
+            nodes.add(node);
+        }
+    }
+
+    /**
+     * @return The number of values
+     */
+    public int size() {
+        return order.length;
+    }
+
+    /**
+     * @return The keys of the values, in the order of the configuration
+     */
+    public List<String> keys() {
+        return Collections.unmodifiableList(Arrays.asList(order));
+    }
+
+    /**
+     * @param key The dotted key of a value
+     * @return true if the configuration has a value (possibly null) for the key
+     */
+    public boolean contains(String key) {
+        return keys[slot(key)] != null;
+    }
+
+    /**
+     * @param key The dotted key of an integer value
+     * @return The value
+     * @throws NoSuchElementException if there is no value for the key
+     * @throws IllegalArgumentException if the value is not an integer
+     */
+    public long getLong(String key) {
+        return longValue(key, require(key));
+    }
+
+    /**
+     * @param key The dotted key of an integer value
+     * @param defaultValue The value to return if there is no value for the key
+     * @return The value, or the default value
+     * @throws IllegalArgumentException if the value is not an integer
+     */
+    public long getLong(String key, long defaultValue) {
+        int slot = slot(key);
+        return keys[slot] == null ? defaultValue : longValue(key, slot);
+    }
+
+    /**
+     * @param key The dotted key of an integer value
+     * @return The value
+     * @throws NoSuchElementException if there is no value for the key
+     * @throws IllegalArgumentException if the value is not an integer in the range of int
+     */
+    public int getInt(String key) {
+        return intValue(key, require(key));
+    }
+
+    /**
+     * @param key The dotted key of an integer value
+     * @param defaultValue The value to return if there is no value for the key
+     * @return The value, or the default value
+     * @throws IllegalArgumentException if the value is not an integer in the range of int
+     */
+    public int getInt(String key, int defaultValue) {
+        int slot = slot(key);
+        return keys[slot] == null ? defaultValue : intValue(key, slot);
+    }
+
+    /**
+     * @param key The dotted key of a numeric value
+     * @return The value
+     * @throws NoSuchElementException if there is no value for the key
+     * @throws IllegalArgumentException if the value is not a number
+     */
+    public double getDouble(String key) {
+        return doubleValue(key, require(key));
+    }
+
+    /**
+     * @param key The dotted key of a numeric value
+     * @param defaultValue The value to return if there is no value for the key
+     * @return The value, or the default value
+     * @throws IllegalArgumentException if the value is not a number
+     */
+    public double getDouble(String key, double defaultValue) {
+        int slot = slot(key);
+        return keys[slot] == null ? defaultValue : doubleValue(key, slot);
+    }
+
+    /**
+     * @param key The dotted key of a boolean value
+     * @return The value
+     * @throws NoSuchElementException if there is no value for the key
+     * @throws IllegalArgumentException if the value is not a boolean
+     */
+    public boolean getBoolean(String key) {
+        return booleanValue(key, require(key));
+    }
+
+    /**
+     * @param key The dotted key of a boolean value
+     * @param defaultValue The value to return if there is no value for the key
+     * @return The value, or the default value
+     * @throws IllegalArgumentException if the value is not a boolean
+     */
+    public boolean getBoolean(String key, boolean defaultValue) {
+        int slot = slot(key);
+        return keys[slot] == null ? defaultValue : booleanValue(key, slot);
+    }
+
+    /**
+     * @param key The dotted key of a value
+     * @return The text of the value, or null if the value is null
+     * @throws NoSuchElementException if there is no value for the key
+     */
+    public String getString(String key) {
+        return texts[require(key)];
+    }
+
+    /**
+     * @param key The dotted key of a value
+     * @param defaultValue The value to return if there is no value for the key
+     * @return The text of the value, null if the value is null, or the default value
+     */
+    public String getString(String key, String defaultValue) {
+        int slot = slot(key);
+        return keys[slot] == null ? defaultValue : texts[slot];
+    }
+
+    /**
+     * @return A constretto-core configuration store of the non-null values, under the default tag,
+     * e.g. for new ConstrettoBuilder().addConfigurationStore(flat.asConfigurationStore())
+     */
+    public ConfigurationStore asConfigurationStore() {
+        final Map<String, String> properties = new LinkedHashMap<>();
+        for (String key : order) {
+            if (texts[slot(key)] != null) {
+                properties.put(key, texts[slot(key)]);
+            }
+        }
+        return new ConfigurationStore() {
+            @Override
+            public Collection<TaggedPropertySet> parseConfiguration() {
+                return Collections.singletonList(new TaggedPropertySet(
+                        ConfigurationValue.DEFAULT_TAG, properties, ConstrettoFlatConfiguration.class));
+            }
+        };
+    }
+
+    /**
+     * @return The slot of the key, or the empty slot where it would be
+     */
+    private int slot(String key) {
+        int h = key.hashCode();
+        int slot = (h ^ (h >>> 16)) & mask;
+        String candidate;
+        while ((candidate = keys[slot]) != null && candidate != key && !candidate.equals(key)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private int require(String key) {
+        int slot = slot(key);
+        if (keys[slot] == null) {
+            throw new NoSuchElementException("No configuration value for " + key);
+        }
+        return slot;
+    }
+
+    private long longValue(String key, int slot) {
+        if (types[slot] != LONG) {
+            throw new IllegalArgumentException("The configuration value of " + key + " is not an integer: " + texts[slot]);
+        }
+        return values[slot];
+    }
+
+    private int intValue(String key, int slot) {
+        long value = longValue(key, slot);
+        if (value != (int) value) {
+            throw new IllegalArgumentException("The configuration value of " + key + " is out of range: " + value);
+        }
+        return (int) value;
+    }
+
+    private double doubleValue(String key, int slot) {
+        if (types[slot] == LONG) {
+            return values[slot];
+        } else if (types[slot] != DOUBLE) {
+            throw new IllegalArgumentException("The configuration value of " + key + " is not a number: " + texts[slot]);
+        }
+        return Double.longBitsToDouble(values[slot]);
+    }
+
+    private boolean booleanValue(String key, int slot) {
+        if (types[slot] != BOOLEAN) {
+            throw new IllegalArgumentException("The configuration value of " + key + " is not a boolean: " + texts[slot]);
+        }
+        return values[slot] != 0;
+    }
+
+}
@@ -0,0 +1,248 @@
+package org.constretto.dropwizard;
+
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import io.dropwizard.configuration.ConfigurationSourceProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A ConfigurationSourceProvider that reads configuration paths starting with 'http://' or 'https://' from a remote
+ * store, and keeps a local snapshot of each of them. Other paths are read from the wrapped provider.
+ *
+ * The snapshot is revalidated with a conditional request (If-None-Match and If-Modified-Since), so an unchanged
+ * configuration is not downloaded again. The content of a 304 response is identical to the snapshot, so with a
+ * ConstrettoConfigurationCache the filtered tree is also read from the cache instead of being parsed and filtered.
+ *
+ * If the store can not be reached, times out or fails with a 5xx status, the snapshot is used instead, with a warning.
+ * A snapshot is only used if its content hash matches the hash recorded when it was written. Snapshots are written
+ * atomically. Wrap this provider in a ConstrettoConfigurationProvider to support the constretto tags.
+ *
+ * @author kjeivers
+ */
+public class ConstrettoHttpSourceProvider implements ConfigurationSourceProvider {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ConstrettoHttpSourceProvider.class);
+    private static final String BODY = ".body";
+    private static final String META = ".properties";
+
+    private final ConfigurationSourceProvider delegate;
+    private final Path directory;
+    private int connectTimeoutMillis = 5000;
+    private int readTimeoutMillis = 10000;
+
+    /**
+     * @param delegate The provider of the paths that are not http(s) URLs
+     * @param snapshotDirectory The directory to store the snapshots in. Created if it does not exist.
+     */
+    public ConstrettoHttpSourceProvider(ConfigurationSourceProvider delegate, Path snapshotDirectory) {
+        this.delegate = checkNotNull(delegate);
+        this.directory = checkNotNull(snapshotDirectory);
+    }
+
+    /**
+     * @param connectTimeout How long to wait for a connection to the store (default 5 seconds)
+     * @param readTimeout How long to wait for data from the store (default 10 seconds)
+     * @param unit The unit of the timeouts
+     * @return this provider
+     */
+    public ConstrettoHttpSourceProvider withTimeouts(long connectTimeout, long readTimeout, TimeUnit unit) {
+        this.connectTimeoutMillis = (int) unit.toMillis(connectTimeout);
+        this.readTimeoutMillis = (int) unit.toMillis(readTimeout);
+        return this;
+    }
+
+    @Override
+    public InputStream open(String path) throws IOException {
+        String lower = path.toLowerCase(Locale.ENGLISH);
+        if (!lower.startsWith("http://") && !lower.startsWith("https://")) {
+            return delegate.open(path);
+        }
+        return new ByteArrayInputStream(fetch(path));
+    }
+
+    private byte[] fetch(String url) throws IOException {
+        Snapshot snapshot = readSnapshot(url);
+        Response response;
+        try {
+            response = request(url, snapshot);
+        } catch (IOException e) {
+            return fallback(url, snapshot, e.toString(), e);
+        }
+        if (response.status == HttpURLConnection.HTTP_OK) {
+            writeSnapshot(url, response);
+            return response.body;
+        } else if (response.status == HttpURLConnection.HTTP_NOT_MODIFIED && snapshot != null) {
+            LOG.debug("The configuration {} has not changed", url);
+            return snapshot.body;
+        } else if (response.status >= 500 || response.status == 429) {
+            return fallback(url, snapshot, "HTTP status " + response.status, null);
+        } else if (response.status == HttpURLConnection.HTTP_NOT_FOUND) {
+            throw new FileNotFoundException(url);
+        }
+        throw new IOException("Unable to read the configuration " + url + ": HTTP status " + response.status);
+    }
+
+    private Response request(String url, Snapshot snapshot) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setConnectTimeout(connectTimeoutMillis);
+        connection.setReadTimeout(readTimeoutMillis);
+        connection.setRequestProperty("Accept-Encoding", "gzip");
+        if (snapshot != null && snapshot.etag != null) {
+            connection.setRequestProperty("If-None-Match", snapshot.etag);
+        }
+        if (snapshot != null && snapshot.lastModified != null) {
+            connection.setRequestProperty("If-Modified-Since", snapshot.lastModified);
+        }
+        int status = connection.getResponseCode();
+        if (status != HttpURLConnection.HTTP_OK) {
+            InputStream error = connection.getErrorStream();
+            if (error != null) {
+                error.close();
+            }
+            return new Response(status, null, null, null);
+        }
+        try (InputStream input = "gzip".equalsIgnoreCase(connection.getContentEncoding())
+                ? new GZIPInputStream(connection.getInputStream())
+                : connection.getInputStream()) {
+            return new Response(status, ByteStreams.toByteArray(input),
+                    connection.getHeaderField("ETag"), connection.getHeaderField("Last-Modified"));
+        }
+    }
+
+    private static byte[] fallback(String url, Snapshot snapshot, String problem, IOException cause) throws IOException {
+        if (snapshot == null) {
+            throw cause != null ? cause : new IOException("Unable to read the configuration " + url + ": " + problem);
+        }
+        LOG.warn("Unable to read the configuration {} ({}), using the local snapshot", url, problem);
+        return snapshot.body;
+    }
+
+    /**
+     * @return The verified snapshot of the url, or null
+     */
+    private Snapshot readSnapshot(String url) {
+        Path body = directory.resolve(prefix(url) + BODY);
+        Path meta = directory.resolve(prefix(url) + META);
+        if (!Files.isRegularFile(body) || !Files.isRegularFile(meta)) {
+            return null;
+        }
+        try {
+            Properties properties = new Properties();
+            try (InputStream input = Files.newInputStream(meta)) {
+                properties.load(input);
+            }
+            byte[] content = Files.readAllBytes(body);
+            if (!url.equals(properties.getProperty("url")) || !hash(content).equals(properties.getProperty("sha256"))) {
+                LOG.warn("Ignoring the snapshot {}, which does not match its recorded hash", body);
+                return null;
+            }
+            return new Snapshot(content, properties.getProperty("etag"), properties.getProperty("lastModified"));
+        } catch (IOException e) {
+            LOG.warn("Ignoring the unreadable snapshot {}", body, e);
+            return null;
+        }
+    }
+
+    /**
+     * Stores the response as the snapshot of the url. Failure to write the snapshot is logged, but otherwise ignored.
+     */
+    private void writeSnapshot(String url, Response response) {
+        Properties properties = new Properties();
+        properties.setProperty("url", url);
+        properties.setProperty("sha256", hash(response.body));
+        if (response.etag != null) {
+            properties.setProperty("etag", response.etag);
+        }
+        if (response.lastModified != null) {
+            properties.setProperty("lastModified", response.lastModified);
+        }
+        try {
+            Files.createDirectories(directory);
+            // the hash in the properties verifies the body, so a crash between the two moves leaves no usable snapshot
+            move(write(url, response.body), directory.resolve(prefix(url) + BODY));
+            Path meta = Files.createTempFile(directory, prefix(url), ".tmp");
+            try (OutputStream output = Files.newOutputStream(meta)) {
+                properties.store(output, null);
+            }
+            move(meta, directory.resolve(prefix(url) + META));
+        } catch (IOException e) {
+            LOG.warn("Unable to write the snapshot of the configuration {}", url, e);
+        }
+    }
+
+    private Path write(String url, byte[] content) throws IOException {
+        Path temp = Files.createTempFile(directory, prefix(url), ".tmp");
+        try {
+            Files.write(temp, content);
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        return temp;
+    }
+
+    private static void move(Path temp, Path target) throws IOException {
+        try {
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static String prefix(String url) {
+        return Hashing.sha256().hashString(url, StandardCharsets.UTF_8).toString().substring(0, 16);
+    }
+
+    private static String hash(byte[] content) {
+        return Hashing.sha256().hashBytes(content).toString();
+    }
+
+    private static final class Snapshot {
+        private final byte[] body;
+        private final String etag;
+        private final String lastModified;
+
+        Snapshot(byte[] body, String etag, String lastModified) {
+            this.body = body;
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+    }
+
+    private static final class Response {
+        private final int status;
+        private final byte[] body;
+        private final String etag;
+        private final String lastModified;
+
+        Response(int status, byte[] body, String etag, String lastModified) {
+            this.status = status;
+            this.body = body;
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+    }
+
+}
@@ -0,0 +1,366 @@
+package org.constretto.dropwizard;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import io.dropwizard.configuration.ConfigurationException;
+import io.dropwizard.configuration.ConfigurationSourceProvider;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Expands the '$include' directives of a filtered configuration tree.
+ *
+ * An object with a '$include' key, whose value is a path or a list of paths, is merged on top of the included
+ * fragments: the fragments are merged in order, and the keys of the object itself take precedence. Relative paths
+ * are resolved against the directory of the including file, and read through the same ConfigurationSourceProvider.
+ * The fragments are filtered for the active tags like the including file, and may include other fragments.
+ *
+ * All fragments, and the fragments they include, are read and parsed in parallel before the tree is expanded.
+ * The parsed fragments are kept by path and content hash, so a fragment that is included many times, or that has not
+ * changed since the last build, is parsed only once. The fragments read for a build are kept with its source, so the
+ * configuration can be resolved for other tags from the fragments the build read. The fragments are read on a pool
+ * of daemon threads that is shared by all builds, whose idle threads exit, and which is shut down with the bundle.
+ *
+ * @author kjeivers
+ */
+final class ConstrettoIncludes {
+
+    static final String DIRECTIVE = "$include";
+
+    private static final int MAX_THREADS = 8;
+
+    private final ObjectMapper mapper;
+    private final Map<ConstrettoSourceFormat, JsonFactory> parserFactories;
+    private final Map<String, Fragment> parsed = new ConcurrentHashMap<>();
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * @param mapper The mapper to parse the fragments with
+     * @param parserFactories The parser factory of each source format
+     */
+    ConstrettoIncludes(ObjectMapper mapper, Map<ConstrettoSourceFormat, JsonFactory> parserFactories) {
+        this.mapper = mapper;
+        this.parserFactories = parserFactories;
+        this.executor = new ThreadPoolExecutor(MAX_THREADS, MAX_THREADS, 1, TimeUnit.MINUTES,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "constretto-include");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Stops the threads that read the fragments; fragments can no longer be read
+     */
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Replaces the include directives of a filtered tree, in place, with the filtered fragments they refer to
+     *
+     * @param sourceProvider the provider to to use for reading the fragments, or null to only use the fragments
+     *                       already read, failing if one is missing
+     * @param path the path of the configuration file
+     * @param tree The filtered tree, which is modified
+     * @param activeTags The set of active constretto tags
+     * @param fragments The fragments already read for the source, to which the fragments that are read are added
+     * @return The expanded tree
+     * @throws IOException            if there is an error reading or parsing a fragment
+     * @throws ConfigurationException if a directive is invalid or the fragments include each other
+     */
+    JsonNode expand(ConfigurationSourceProvider sourceProvider, String path, JsonNode tree, Collection<String> activeTags,
+                    Fragments fragments) throws IOException, ConfigurationException {
+        Set<String> paths = new LinkedHashSet<>();
+        collect(path, tree, false, paths);
+        if (paths.isEmpty()) {
+            return tree;
+        }
+        if (sourceProvider != null) {
+            load(sourceProvider, paths, fragments);
+        }
+        Deque<String> including = new ArrayDeque<>();
+        including.push(path);
+        expand(sourceProvider, tree, including, fragments.loaded, activeTags);
+        return tree;
+    }
+
+    /**
+     * Reads every fragment that the unfiltered tree may include for any set of tags, so that the tree can later be
+     * expanded for other tags without reading anything
+     *
+     * @param sourceProvider the provider to to use for reading the fragments
+     * @param path the path of the configuration file
+     * @param tree The unfiltered tree
+     * @param fragments The fragments already read for the source, to which the fragments that are read are added
+     * @throws ConfigurationException if a directive is invalid
+     */
+    void prefetch(ConfigurationSourceProvider sourceProvider, String path, JsonNode tree, Fragments fragments)
+            throws ConfigurationException {
+        Set<String> paths = new LinkedHashSet<>();
+        collect(path, tree, true, paths);
+        load(sourceProvider, paths, fragments);
+    }
+
+    /**
+     * Reads every fragment that may be included, level by level, each level in parallel, skipping the
+     * fragments that have already been read
+     *
+     * A fragment that fails to load only fails the build if it is actually included.
+     */
+    private void load(final ConfigurationSourceProvider sourceProvider, Set<String> paths, Fragments fragments) {
+        Map<String, Future<Fragment>> loaded = fragments.loaded;
+        Set<String> pending = new LinkedHashSet<>(paths);
+        pending.removeAll(loaded.keySet());
+        while (!pending.isEmpty()) {
+            Map<String, Future<Fragment>> level = new LinkedHashMap<>();
+            for (final String path : pending) {
+                level.put(path, executor.submit(new Callable<Fragment>() {
+                    @Override
+                    public Fragment call() throws IOException {
+                        return read(sourceProvider, path);
+                    }
+                }));
+            }
+            loaded.putAll(level);
+            Set<String> discovered = new LinkedHashSet<>();
+            for (Map.Entry<String, Future<Fragment>> entry : level.entrySet()) {
+                try {
+                    Fragment fragment = entry.getValue().get();
+                    if (fragment.tree != null) {
+                        // the fragment is not filtered yet, so the includes of all tags are read ahead
+                        collect(entry.getKey(), fragment.tree, true, discovered);
+                    }
+                } catch (ExecutionException | ConfigurationException e) {
+                    // reported when the fragment is expanded
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            discovered.removeAll(loaded.keySet());
+            pending = discovered;
+        }
+    }
+
+    /**
+     * @return The parsed fragment, from the cache if its content has not changed
+     */
+    private Fragment read(ConfigurationSourceProvider sourceProvider, String path) throws IOException {
+        byte[] source;
+        try (InputStream input = sourceProvider.open(path)) {
+            source = ByteStreams.toByteArray(input);
+        }
+        String hash = Hashing.murmur3_128().hashBytes(source).toString();
+        Fragment cached = parsed.get(path);
+        if (cached != null && cached.hash.equals(hash)) {
+            return cached;
+        }
+        PushbackInputStream input = ConstrettoSourceFormat.pushback(new ByteArrayInputStream(source));
+        JsonNode tree = mapper.readTree(parserFactories.get(ConstrettoSourceFormat.detect(path, input)).createParser(input));
+        Fragment fragment = new Fragment(hash, ConstrettoCompactTree.compact(tree));
+        parsed.put(path, fragment);
+        return fragment;
+    }
+
+    private void expand(ConfigurationSourceProvider sourceProvider, JsonNode node, Deque<String> including,
+                        Map<String, Future<Fragment>> loaded, Collection<String> activeTags)
+            throws IOException, ConfigurationException {
+        if (node.isArray()) {
+            for (JsonNode element : node) {
+                expand(sourceProvider, element, including, loaded, activeTags);
+            }
+        } else if (node.isObject()) {
+            for (JsonNode value : node) {
+                expand(sourceProvider, value, including, loaded, activeTags);
+            }
+            ObjectNode object = (ObjectNode) node;
+            JsonNode directive = object.remove(DIRECTIVE);
+            if (directive == null) {
+                return;
+            }
+            ObjectNode merged = object.objectNode();
+            for (String path : paths(including.peek(), directive)) {
+                if (including.contains(path)) {
+                    throw error(including.peek(), "The configuration " + path + " includes itself through " + including);
+                }
+                Fragment fragment = get(sourceProvider, including.peek(), path, loaded);
+                if (fragment.tree == null || !fragment.tree.isObject()) {
+                    throw error(including.peek(), "The included configuration " + path + " must be an object");
+                }
+                // resolved trees share the untagged subtrees of the cached fragment
+                JsonNode included = fragment.index.resolve(activeTags).deepCopy();
+                including.push(path);
+                expand(sourceProvider, included, including, loaded, activeTags);
+                including.pop();
+                merge(merged, (ObjectNode) included);
+            }
+            merge(merged, object);
+            object.removeAll();
+            object.setAll(merged);
+        }
+    }
+
+    private Fragment get(ConfigurationSourceProvider sourceProvider, String includingPath, String path,
+                         Map<String, Future<Fragment>> loaded) throws IOException, ConfigurationException {
+        Future<Fragment> future = loaded.get(path);
+        if (future == null && sourceProvider == null) {
+            throw error(includingPath, "The included configuration " + path + " was not read when the configuration was built");
+        } else if (future == null) {
+            return read(sourceProvider, path);
+        }
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading " + path, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            } else if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException("Unable to read " + path, e.getCause());
+        }
+    }
+
+    /**
+     * Merges the fields of the source into the target; nested objects are merged, and other values are replaced
+     */
+    private static void merge(ObjectNode target, ObjectNode source) {
+        Iterator<Map.Entry<String, JsonNode>> fields = source.fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            JsonNode existing = target.get(field.getKey());
+            if (existing != null && existing.isObject() && field.getValue().isObject()) {
+                merge((ObjectNode) existing, (ObjectNode) field.getValue());
+            } else {
+                target.set(field.getKey(), field.getValue());
+            }
+        }
+    }
+
+    /**
+     * Finds the paths of the directives of a tree
+     *
+     * @param path the path of the file of the tree
+     * @param node The tree
+     * @param tagged true to include the tagged directives ('.production.$include') of an unfiltered tree
+     * @param paths The paths found
+     */
+    private static void collect(String path, JsonNode node, boolean tagged, Set<String> paths) throws ConfigurationException {
+        if (node.isObject()) {
+            Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
+            while (fields.hasNext()) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                String fieldName = field.getKey();
+                if (fieldName.equals(DIRECTIVE) || (tagged && fieldName.startsWith(".") && fieldName.endsWith("." + DIRECTIVE))) {
+                    paths.addAll(paths(path, field.getValue()));
+                } else {
+                    collect(path, field.getValue(), tagged, paths);
+                }
+            }
+        } else if (node.isArray()) {
+            for (JsonNode element : node) {
+                collect(path, element, tagged, paths);
+            }
+        }
+    }
+
+    /**
+     * @return The resolved paths of a directive
+     */
+    private static List<String> paths(String path, JsonNode directive) throws ConfigurationException {
+        List<String> paths = new ArrayList<>();
+        if (directive.isTextual()) {
+            paths.add(resolve(path, directive.textValue()));
+        } else if (directive.isArray()) {
+            for (JsonNode element : directive) {
+                if (!element.isTextual()) {
+                    throw error(path, DIRECTIVE + " must be a path or a list of paths: " + directive);
+                }
+                paths.add(resolve(path, element.textValue()));
+            }
+        } else {
+            throw error(path, DIRECTIVE + " must be a path or a list of paths: " + directive);
+        }
+        return paths;
+    }
+
+    /**
+     * @return The included path, relative to the directory of the including path unless it is absolute
+     */
+    static String resolve(String path, String include) {
+        int slash = path.lastIndexOf('/');
+        if (include.startsWith("/") || include.contains(":") || slash < 0) {
+            return include;
+        }
+        Deque<String> segments = new ArrayDeque<>();
+        for (String segment : (path.substring(0, slash + 1) + include).split("/", -1)) {
+            if (segment.equals("..") && !segments.isEmpty() && !segments.peekLast().equals("..")) {
+                segments.removeLast();
+            } else if (!segment.equals(".")) {
+                segments.addLast(segment);
+            }
+        }
+        return Joiner.on('/').join(segments);
+    }
+
+    private static ConfigurationException error(String path, String message) {
+        return new ConstrettoConfigurationFactory.ConstrettoFilterConfigurationException(path, ImmutableSet.of(message), null);
+    }
+
+    /**
+     * The fragments read for a source, by path
+     */
+    static final class Fragments {
+        private final Map<String, Future<Fragment>> loaded = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * A parsed, unfiltered fragment and its index
+     */
+    private static final class Fragment {
+        private final String hash;
+        private final JsonNode tree;
+        private final ConstrettoConfigurationIndex index;
+
+        Fragment(String hash, JsonNode tree) {
+            this.hash = hash;
+            this.tree = tree;
+            this.index = tree == null ? null : ConstrettoConfigurationIndex.of(tree);
+        }
+    }
+
+}
@@ -0,0 +1,227 @@
+package org.constretto.dropwizard;
+
+import com.fasterxml.jackson.annotation.JsonValue;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonStreamContext;
+import com.fasterxml.jackson.databind.BeanProperty;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.deser.ContextualDeserializer;
+import io.dropwizard.configuration.ConfigurationValidationException;
+import io.dropwizard.jackson.Jackson;
+
+import javax.validation.ConstraintViolation;
+import javax.validation.Validator;
+import java.io.IOException;
+import java.util.Set;
+
+/**
+ * A section of the configuration that is bound and validated on first access, instead of when the configuration is built.
+ *
+ * Declare large sections that only some code paths use, e.g. per-tenant maps or feature catalogs, as ConstrettoLazy:
+ *
+ * <pre>
+ * &#64;Valid &#64;NotNull &#64;JsonProperty
+ * private ConstrettoLazy&lt;Map&lt;String, TenantConfig&gt;&gt; tenants;
+ *
+ * TenantConfig acme = config.getTenants().get().get("acme");
+ * </pre>
+ *
+ * Building the configuration only keeps the filtered subtree of the section, with the system property overrides
+ * applied. The first call to get() binds it with the mapper of the ConstrettoConfigurationFactory and validates it
+ * with its validator, exactly once, also when called from several threads. Outside of a ConstrettoConfigurationFactory
+ * the section is bound with a default Dropwizard mapper, and not validated.
+ *
+ * @author kjeivers
+ */
+@JsonDeserialize(using = ConstrettoLazy.Deserializer.class)
+public final class ConstrettoLazy<T> {
+
+    private static final ThreadLocal<Binding> BINDING = new ThreadLocal<>();
+
+    private final JavaType type;
+    private final Binding binding;
+    private final String location;
+
+    private volatile JsonNode tree;
+    private volatile T value;
+    private volatile RuntimeException failure;
+    private volatile boolean bound;
+
+    private ConstrettoLazy(JsonNode tree, JavaType type, Binding binding, String location) {
+        this.tree = tree;
+        this.type = type;
+        this.binding = binding;
+        this.location = location;
+    }
+
+    /**
+     * @param value The value of the section
+     * @return A section that is already bound, e.g. for tests
+     */
+    public static <T> ConstrettoLazy<T> of(T value) {
+        ConstrettoLazy<T> lazy = new ConstrettoLazy<>(null, null, null, "");
+        lazy.value = value;
+        lazy.bound = true;
+        return lazy;
+    }
+
+    /**
+     * @return The bound and validated section
+     * @throws IllegalStateException if the section can not be bound or is invalid; the same exception is thrown on every call
+     */
+    public T get() {
+        if (!bound) {
+            synchronized (this) {
+                if (!bound) {
+                    try {
+                        value = bind();
+                        // only the bound section is kept
+                        tree = null;
+                    } catch (IOException e) {
+                        failure = new IllegalStateException("Unable to bind the configuration " + location + ": " + e.getMessage(), e);
+                    } catch (ConfigurationValidationException e) {
+                        failure = new IllegalStateException(e.getMessage().trim(), e);
+                    } catch (RuntimeException e) {
+                        failure = e;
+                    }
+                    bound = true;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return value;
+    }
+
+    /**
+     * @return true if get() has bound the section
+     */
+    public boolean isBound() {
+        return bound;
+    }
+
+    private T bind() throws IOException, ConfigurationValidationException {
+        T result = binding.mapper.readerFor(type).readValue(tree);
+        if (binding.validator != null) {
+            Set<ConstraintViolation<T>> violations = binding.validator.validate(result);
+            if (!violations.isEmpty()) {
+                throw new ConfigurationValidationException(location, violations);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return The unbound tree, or the bound value, so that serializing the section does not bind it
+     */
+    @JsonValue
+    Object toJson() {
+        JsonNode unbound = tree;
+        return unbound != null ? unbound : value;
+    }
+
+    @Override
+    public String toString() {
+        return "ConstrettoLazy{" + location + (bound ? ", bound" : "") + "}";
+    }
+
+    /**
+     * Makes the mapper and validator of a factory available to the sections bound by the current thread
+     *
+     * @return The previous binding of the thread, to restore with exit()
+     */
+    static Binding enter(ObjectMapper mapper, Validator validator, String path) {
+        Binding previous = BINDING.get();
+        BINDING.set(new Binding(mapper, validator, path));
+        return previous;
+    }
+
+    /**
+     * @param previous The binding returned by enter()
+     */
+    static void exit(Binding previous) {
+        if (previous == null) {
+            BINDING.remove();
+        } else {
+            BINDING.set(previous);
+        }
+    }
+
+    /**
+     * The mapper and validator of the factory that builds the configuration
+     */
+    static final class Binding {
+        private final ObjectMapper mapper;
+        private final Validator validator;
+        private final String path;
+
+        Binding(ObjectMapper mapper, Validator validator, String path) {
+            this.mapper = mapper;
+            this.validator = validator;
+            this.path = path;
+        }
+    }
+
+    /**
+     * The binding of sections that are not bound by a factory, created on first use
+     */
+    private static final class DefaultBinding {
+        private static final Binding INSTANCE = new Binding(Jackson.newObjectMapper(), null, "");
+    }
+
+    /**
+     * Keeps the subtree of a section, and the type to bind it to
+     */
+    static final class Deserializer extends JsonDeserializer<ConstrettoLazy<?>> implements ContextualDeserializer {
+
+        private final JavaType type;
+
+        public Deserializer() {
+            this(null);
+        }
+
+        private Deserializer(JavaType type) {
+            this.type = type;
+        }
+
+        @Override
+        public JsonDeserializer<?> createContextual(DeserializationContext ctxt, BeanProperty property) {
+            JavaType lazyType = ctxt.getContextualType() != null ? ctxt.getContextualType()
+                    : property != null ? property.getType() : null;
+            JavaType valueType = lazyType == null ? null : lazyType.containedType(0);
+            return new Deserializer(valueType == null ? ctxt.constructType(Object.class) : valueType);
+        }
+
+        @Override
+        public ConstrettoLazy<?> deserialize(JsonParser parser, DeserializationContext ctxt) throws IOException {
+            String pointer = pointer(parser.getParsingContext());
+            JsonNode tree = ctxt.readValue(parser, JsonNode.class);
+            Binding binding = BINDING.get() != null ? BINDING.get() : DefaultBinding.INSTANCE;
+            String location = binding.path.isEmpty() ? pointer : binding.path + " (" + pointer + ")";
+            // the section is kept until it is bound, possibly for the lifetime of the configuration
+            return new ConstrettoLazy<>(ConstrettoCompactTree.compact(tree), type, binding, location);
+        }
+
+        /**
+         * @return The JSON pointer of the value the parser is at
+         */
+        private static String pointer(JsonStreamContext context) {
+            StringBuilder pointer = new StringBuilder();
+            for (JsonStreamContext c = context; c != null && !c.inRoot(); c = c.getParent()) {
+                if (c.inObject() && c.getCurrentName() != null) {
+                    pointer.insert(0, "/" + c.getCurrentName());
+                } else if (c.inArray()) {
+                    pointer.insert(0, "/" + c.getCurrentIndex());
+                }
+            }
+            return pointer.toString();
+        }
+    }
+
+}
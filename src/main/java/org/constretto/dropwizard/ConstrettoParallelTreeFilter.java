@@ -0,0 +1,195 @@
+package org.constretto.dropwizard;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Filters a parsed constretto-tagged tree like the sequential TREE filter, but splits the children of
+ * large objects and arrays across a ForkJoinPool.
+ *
+ * For each container, the fields (or elements) to keep are selected sequentially, with the same
+ * ordering and override rules as the sequential filter. Only the filtering of the selected children,
+ * which is independent of their siblings, runs in parallel. Containers with fewer children than the
+ * threshold are filtered on the current thread, although their large descendants may still be split.
+ *
+ * @author kjeivers
+ */
+final class ConstrettoParallelTreeFilter {
+
+    /**
+     * The default minimum number of children of a container before they are filtered in parallel
+     */
+    static final int DEFAULT_THRESHOLD = 64;
+
+    private final ConstrettoTags activeTags;
+    private final int threshold;
+    private final int batchSize;
+    private final ForkJoinPool pool;
+
+    /**
+     * @param activeTags The compiled set of active constretto tags
+     * @param threshold The minimum number of children of a container before they are filtered in parallel
+     * @param pool The pool to filter in
+     */
+    ConstrettoParallelTreeFilter(ConstrettoTags activeTags, int threshold, ForkJoinPool pool) {
+        this.activeTags = activeTags;
+        this.threshold = Math.max(2, threshold);
+        this.batchSize = Math.max(1, this.threshold / 4);
+        this.pool = pool;
+    }
+
+    /**
+     * @param node The root node of the unfiltered tree, which is left unchanged
+     * @return A new tree filtered according to the active tags
+     */
+    JsonNode filter(JsonNode node) {
+        return filter(node, new ConstrettoTags.Counts());
+    }
+
+    /**
+     * @param node The root node of the unfiltered tree, which is left unchanged
+     * @param counts The tagged keys kept and dropped, added up from all threads once the tree is filtered
+     * @return A new tree filtered according to the active tags
+     */
+    JsonNode filter(final JsonNode node, final ConstrettoTags.Counts counts) {
+        return pool.invoke(new RecursiveTask<JsonNode>() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected JsonNode compute() {
+                return filterNode(node, counts);
+            }
+        });
+    }
+
+    private JsonNode filterNode(JsonNode node, ConstrettoTags.Counts counts) {
+        switch (node.getNodeType()) {
+            case OBJECT:
+                return filterObject((ObjectNode) node, counts);
+            case ARRAY:
+                return filterArray((ArrayNode) node, counts);
+            default:
+                return node;
+        }
+    }
+
+    private JsonNode filterObject(ObjectNode node, ConstrettoTags.Counts counts) {
+        Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
+        Map<String, JsonNode> selected = new LinkedHashMap<>();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            String fieldName = field.getKey();
+            int dot2 = fieldName.startsWith(".") ? fieldName.indexOf('.', 1) : -1;
+            if (dot2 != -1) {
+                if (counts.count(activeTags.isActive(fieldName, 1, dot2))) {
+                    selected.put(fieldName.substring(dot2 + 1), field.getValue());
+                }
+            } else if (!selected.containsKey(fieldName)) {
+                selected.put(fieldName, field.getValue());
+            }
+        }
+        JsonNode[] filtered = filterAll(new ArrayList<>(selected.values()), counts);
+        int i = 0;
+        for (Map.Entry<String, JsonNode> field : selected.entrySet()) {
+            field.setValue(filtered[i++]);
+        }
+        return node.objectNode().setAll(selected);
+    }
+
+    private JsonNode filterArray(ArrayNode node, ConstrettoTags.Counts counts) {
+        List<JsonNode> selected = new ArrayList<>(node.size());
+        List<Boolean> tagged = new ArrayList<>(node.size());
+        for (JsonNode child : node) {
+            if (child.isObject() && child.size() > 0) {
+                Map.Entry<String, JsonNode> firstVal = child.fields().next();
+                String fieldName = firstVal.getKey();
+                String fieldValue = firstVal.getValue().asText();
+                // if the first child element consists of a constretto-tag and nothing more: '-.production'
+                if (fieldName.startsWith(".") && fieldName.indexOf('.', 1) == -1
+                        && ("null".equals(fieldValue) || "".equals(fieldValue))) {
+                    if (counts.count(activeTags.isActive(fieldName, 1, fieldName.length()))) {
+                        selected.add(child);
+                        tagged.add(true);
+                    }
+                    continue;
+                }
+            }
+            selected.add(child);
+            tagged.add(false);
+        }
+        JsonNode[] filtered = filterAll(selected, counts);
+        ArrayNode result = node.arrayNode();
+        for (int i = 0; i < filtered.length; i++) {
+            if (tagged.get(i)) {
+                // the filtered element is a new node, so removing the tag marker leaves the source unchanged
+                Iterator<Map.Entry<String, JsonNode>> fields = filtered[i].fields();
+                fields.next();
+                fields.remove();
+            }
+            result.add(filtered[i]);
+        }
+        return result;
+    }
+
+    private JsonNode[] filterAll(List<JsonNode> children, ConstrettoTags.Counts counts) {
+        JsonNode[] filtered = new JsonNode[children.size()];
+        if (children.size() < threshold) {
+            for (int i = 0; i < filtered.length; i++) {
+                filtered[i] = filterNode(children.get(i), counts);
+            }
+        } else {
+            FilterRange range = new FilterRange(children, filtered, 0, filtered.length);
+            range.invoke();
+            counts.add(range.counts);
+        }
+        return filtered;
+    }
+
+    /**
+     * Filters a range of sibling nodes, splitting it in halves until the ranges are small enough.
+     * Each range counts its own tagged keys, and adds up the counts of its halves once they are joined.
+     */
+    private final class FilterRange extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final ConstrettoTags.Counts counts = new ConstrettoTags.Counts();
+        private final List<JsonNode> children;
+        private final JsonNode[] filtered;
+        private final int from;
+        private final int to;
+
+        FilterRange(List<JsonNode> children, JsonNode[] filtered, int from, int to) {
+            this.children = children;
+            this.filtered = filtered;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= batchSize) {
+                for (int i = from; i < to; i++) {
+                    filtered[i] = filterNode(children.get(i), counts);
+                }
+            } else {
+                int middle = (from + to) >>> 1;
+                FilterRange first = new FilterRange(children, filtered, from, middle);
+                FilterRange second = new FilterRange(children, filtered, middle, to);
+                invokeAll(first, second);
+                counts.add(first.counts);
+                counts.add(second.counts);
+            }
+        }
+    }
+
+}
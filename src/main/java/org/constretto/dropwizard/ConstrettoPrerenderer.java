@@ -0,0 +1,88 @@
+package org.constretto.dropwizard;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import com.fasterxml.jackson.dataformat.yaml.YAMLGenerator;
+import io.dropwizard.configuration.ConfigurationSourceProvider;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.util.Collection;
+import java.util.TreeSet;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Renders a constretto-tagged configuration for a fixed set of tags ahead of time, typically at build time.
+ *
+ * The rendered tree starts with a marker field holding the tags it was rendered for. ConstrettoConfigurationProvider
+ * and ConstrettoConfigurationFactory recognize the marker at the start of a source, and load it without the '@'
+ * rewrite and the filtering. The factory fails if the marked tags differ from the active tags.
+ *
+ * @author kjeivers
+ */
+public class ConstrettoPrerenderer {
+
+    /**
+     * The name of the field that marks a pre-rendered configuration
+     */
+    public static final String MARKER = "constretto-prerendered";
+
+    private final ObjectMapper mapper;
+
+    public ConstrettoPrerenderer() {
+        this(new ObjectMapper());
+    }
+
+    public ConstrettoPrerenderer(ObjectMapper mapper) {
+        this.mapper = mapper;
+    }
+
+    /**
+     * @param sourceProvider the provider to to use for reading configuration files; '@' tags are supported
+     * @param path the path of the constretto-tagged configuration
+     * @param tags The tags to render the configuration for
+     * @return The configuration filtered for the tags, starting with the marker field
+     * @throws IOException if there is an error reading or parsing the source
+     */
+    public ObjectNode render(ConfigurationSourceProvider sourceProvider, String path, Collection<String> tags) throws IOException {
+        try (PushbackInputStream input = ConstrettoSourceFormat.pushback(new ConstrettoConfigurationProvider(sourceProvider).open(path))) {
+            ConstrettoSourceFormat format = ConstrettoSourceFormat.detect(path, input);
+            checkArgument(!format.isPrerendered(input), "The configuration %s is already pre-rendered", path);
+            JsonNode node = mapper.readTree(new ConstrettoTagFilteringParser(
+                    format.createFactory().createParser(input), ConstrettoTags.of(tags), new ConstrettoTags.Counts()));
+            checkArgument(node != null && node.isObject(), "The configuration %s must be an object", path);
+            ObjectNode rendered = mapper.createObjectNode();
+            ArrayNode marker = rendered.putArray(MARKER);
+            for (String tag : new TreeSet<>(tags)) {
+                marker.add(tag);
+            }
+            rendered.setAll((ObjectNode) node);
+            return rendered;
+        }
+    }
+
+    /**
+     * @param rendered A configuration returned by render()
+     * @param output The stream to write to; it is not closed
+     * @param format The format to write
+     * @throws IOException if there is an error writing the configuration
+     */
+    public void write(ObjectNode rendered, OutputStream output, ConstrettoSourceFormat format) throws IOException {
+        checkArgument(rendered.has(MARKER), "The configuration is not pre-rendered");
+        // the marker must be at the very start of the source to be recognized
+        JsonFactory factory = format == ConstrettoSourceFormat.YAML
+                ? new YAMLFactory().disable(YAMLGenerator.Feature.WRITE_DOC_START_MARKER)
+                : format.createFactory();
+        try (JsonGenerator generator = factory.createGenerator(output).disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)) {
+            mapper.writeTree(generator, rendered);
+        }
+    }
+
+}
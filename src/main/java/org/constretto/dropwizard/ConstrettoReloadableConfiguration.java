@@ -0,0 +1,111 @@
+package org.constretto.dropwizard;
+
+import com.fasterxml.jackson.core.JsonPointer;
+import com.fasterxml.jackson.databind.JsonNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Holds the current snapshot of the configuration.
+ *
+ * A new snapshot is published atomically each time the configuration is (re)loaded,
+ * and reading the current snapshot never blocks. Listeners registered for a part of the configuration
+ * are notified when a new snapshot changes the value of that part.
+ *
+ * @author kjeivers
+ */
+public class ConstrettoReloadableConfiguration<T> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ConstrettoReloadableConfiguration.class);
+
+    private final AtomicReference<ConstrettoConfigurationSnapshot<T>> current = new AtomicReference<>();
+    private final List<Registration<T>> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * @return The current configuration, or null if no configuration has been loaded yet
+     */
+    public T get() {
+        ConstrettoConfigurationSnapshot<T> snapshot = current.get();
+        return snapshot == null ? null : snapshot.getConfiguration();
+    }
+
+    /**
+     * @return The current snapshot, or null if no configuration has been loaded yet
+     */
+    public ConstrettoConfigurationSnapshot<T> getSnapshot() {
+        return current.get();
+    }
+
+    /**
+     * Registers a listener that is notified when the value at the given path changes.
+     * The listener is invoked on the thread that publishes the new snapshot.
+     *
+     * @param path A JSON pointer to the part of the configuration to listen to, e.g. '/database'. '' is the whole configuration.
+     * @param listener The listener
+     */
+    public void addListener(String path, ConstrettoConfigurationListener<T> listener) {
+        JsonPointer.compile(path);
+        listeners.add(new Registration<>(path, listener));
+    }
+
+    /**
+     * @param listener A previously registered listener
+     */
+    public void removeListener(ConstrettoConfigurationListener<T> listener) {
+        for (Registration<T> registration : listeners) {
+            if (registration.listener == listener) {
+                listeners.remove(registration);
+            }
+        }
+    }
+
+    /**
+     * Replaces the current snapshot, and notifies the listeners of the paths that have changed
+     *
+     * @param configuration The validated configuration
+     * @param tree The filtered tree the configuration was bound from
+     * @return The published snapshot
+     */
+    ConstrettoConfigurationSnapshot<T> publish(T configuration, JsonNode tree) {
+        ConstrettoConfigurationSnapshot<T> previous;
+        ConstrettoConfigurationSnapshot<T> next;
+        do {
+            previous = current.get();
+            next = new ConstrettoConfigurationSnapshot<>(
+                    previous == null ? 1 : previous.getVersion() + 1, System.currentTimeMillis(), configuration, tree);
+        } while (!current.compareAndSet(previous, next));
+        if (previous != null) {
+            notifyListeners(previous, next);
+        }
+        return next;
+    }
+
+    private void notifyListeners(ConstrettoConfigurationSnapshot<T> previous, ConstrettoConfigurationSnapshot<T> next) {
+        for (Registration<T> registration : listeners) {
+            if (next.hasChanged(previous, registration.path)) {
+                try {
+                    registration.listener.onChange(previous, next);
+                } catch (RuntimeException e) {
+                    LOG.error("Configuration listener for '{}' failed", registration.path, e);
+                }
+            }
+        }
+    }
+
+    private static class Registration<T> {
+
+        private final String path;
+        private final ConstrettoConfigurationListener<T> listener;
+
+        Registration(String path, ConstrettoConfigurationListener<T> listener) {
+            this.path = path;
+            this.listener = listener;
+        }
+
+    }
+
+}
@@ -0,0 +1,226 @@
+package org.constretto.dropwizard;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Splitter;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.ImmutableMultimap;
+import com.google.common.collect.ImmutableSortedSet;
+import io.dropwizard.configuration.ConfigurationException;
+import io.dropwizard.lifecycle.Managed;
+import io.dropwizard.servlets.tasks.Task;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.regex.Pattern;
+
+/**
+ * An admin task that renders the filtered configuration for any set of tags, as JSON:
+ *
+ * curl -X POST 'http://localhost:8081/tasks/constretto-render?tags=production,eu'
+ *
+ * Without the 'tags' parameter the currently active tags are used. The values of keys that look like
+ * secrets are masked. The system property overrides are not applied, as they belong to the running process.
+ *
+ * The configuration is resolved from the source the running configuration was built from, as retained by the
+ * factory, so a rendering never reads the configuration again and shows edits only once they have been loaded.
+ * The rendered results are kept in a cache bounded by their total length, so that repeated requests are served
+ * from memory, and the cache is emptied when a new configuration is built.
+ *
+ * A configuration is rendered on a thread of its own, so a large configuration, or an included file that is slow
+ * to read for the requested tags, holds the admin request for no longer than the timeout. Renderings run one at
+ * a time; one that times out is interrupted, and a request that queues behind it times out as well.
+ *
+ * @author kjeivers
+ */
+public class ConstrettoRenderTask extends Task implements Managed {
+
+    /**
+     * The keys whose values are masked by default
+     */
+    public static final Pattern DEFAULT_SECRETS =
+            Pattern.compile("(?i).*(password|passwd|secret|token|credential|private-?key|api-?key).*");
+
+    static final String MASK = "******";
+
+    private final ConstrettoConfigurationFactory<?> factory;
+    private final Pattern secrets;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final Cache<RenderKey, String> rendered;
+    private final ThreadPoolExecutor executor;
+    private final long timeoutMillis;
+
+    private volatile long renderedVersion;
+
+    /**
+     * @param factory The factory that built the configuration
+     * @param secrets The keys whose values are masked
+     * @param maxCachedChars The maximum total length of the cached results
+     * @param timeoutMillis How long a request waits for the configuration to be rendered
+     */
+    ConstrettoRenderTask(ConstrettoConfigurationFactory<?> factory, Pattern secrets, long maxCachedChars, long timeoutMillis) {
+        super("constretto-render");
+        this.factory = factory;
+        this.secrets = secrets;
+        this.timeoutMillis = timeoutMillis;
+        this.executor = new ThreadPoolExecutor(1, 1, 1, TimeUnit.MINUTES, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "constretto-render");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        this.executor.allowCoreThreadTimeOut(true);
+        this.rendered = CacheBuilder.newBuilder()
+                .maximumWeight(maxCachedChars)
+                .weigher(new Weigher<RenderKey, String>() {
+                    @Override
+                    public int weigh(RenderKey key, String value) {
+                        return value.length();
+                    }
+                })
+                .build();
+    }
+
+    @Override
+    public void start() throws Exception {
+    }
+
+    @Override
+    public void stop() throws Exception {
+        executor.shutdownNow();
+        executor.awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public void execute(ImmutableMultimap<String, String> parameters, PrintWriter output) throws Exception {
+        final ConstrettoConfigurationFactory.Source source = factory.getLastSource();
+        final Set<String> tags = tags(parameters);
+        if (source.getVersion() != renderedVersion) {
+            // the results of the previous build are never served again
+            rendered.invalidateAll();
+            renderedVersion = source.getVersion();
+        }
+        final RenderKey key = new RenderKey(source.getVersion(), tags);
+        String json = rendered.getIfPresent(key);
+        if (json == null) {
+            json = resolve(source, tags);
+            rendered.put(key, json);
+        }
+        output.println(json);
+        output.flush();
+    }
+
+    private String resolve(final ConstrettoConfigurationFactory.Source source, final Set<String> tags) throws Exception {
+        Future<String> json = executor.submit(new Callable<String>() {
+            @Override
+            public String call() throws IOException, ConfigurationException {
+                return render(factory.resolveTree(source, tags));
+            }
+        });
+        try {
+            return json.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            json.cancel(true);
+            throw new TimeoutException("The configuration was not rendered for the tags " + tags + " within " + timeoutMillis + " ms");
+        } catch (ExecutionException e) {
+            // the configuration, or an included file, is invalid for the tags
+            Throwables.propagateIfPossible(e.getCause(), IOException.class, ConfigurationException.class);
+            throw e;
+        }
+    }
+
+    private Set<String> tags(ImmutableMultimap<String, String> parameters) {
+        if (!parameters.containsKey("tags")) {
+            return ImmutableSortedSet.copyOf(factory.getTagResolver().getTags());
+        }
+        ImmutableSortedSet.Builder<String> tags = ImmutableSortedSet.naturalOrder();
+        for (String value : parameters.get("tags")) {
+            tags.addAll(Splitter.on(',').trimResults().omitEmptyStrings().split(value));
+        }
+        return tags.build();
+    }
+
+    /**
+     * @return The tree as pretty-printed JSON, with the secrets masked
+     */
+    String render(JsonNode node) throws IOException {
+        StringWriter writer = new StringWriter();
+        try (JsonGenerator generator = mapper.getFactory().createGenerator(writer)) {
+            generator.useDefaultPrettyPrinter();
+            write(generator, node);
+        }
+        return writer.toString();
+    }
+
+    private void write(JsonGenerator generator, JsonNode node) throws IOException {
+        if (node.isObject()) {
+            generator.writeStartObject();
+            Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
+            while (fields.hasNext()) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                generator.writeFieldName(field.getKey());
+                if (secrets.matcher(field.getKey()).matches() && !field.getValue().isNull()) {
+                    generator.writeString(MASK);
+                } else {
+                    write(generator, field.getValue());
+                }
+            }
+            generator.writeEndObject();
+        } else if (node.isArray()) {
+            generator.writeStartArray();
+            for (JsonNode element : node) {
+                write(generator, element);
+            }
+            generator.writeEndArray();
+        } else {
+            generator.writeTree(node);
+        }
+    }
+
+    /**
+     * A set of tags resolved from a particular build; results from an outdated build are never served
+     */
+    private static final class RenderKey {
+        private final long version;
+        private final Set<String> tags;
+
+        RenderKey(long version, Set<String> tags) {
+            this.version = version;
+            this.tags = tags;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof RenderKey)) {
+                return false;
+            }
+            RenderKey other = (RenderKey) o;
+            return version == other.version && tags.equals(other.tags);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Long.hashCode(version) + tags.hashCode();
+        }
+    }
+
+}
@@ -0,0 +1,202 @@
+package org.constretto.dropwizard;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * The formats of a configuration source. The same constretto tags apply to all formats;
+ * in JSON, Smile and CBOR a tagged list element is an object whose first field is the tag with a null value.
+ *
+ * The format is given by the extension of the path, or detected from the first bytes of the source.
+ * A JSON source without the '.json' extension is parsed as YAML, of which JSON is a subset.
+ *
+ * @author kjeivers
+ */
+public enum ConstrettoSourceFormat {
+
+    YAML(false),
+    JSON(false),
+    SMILE(true),
+    CBOR(true);
+
+    /**
+     * The number of bytes inspected to detect the format and pre-rendered sources
+     */
+    static final int HEAD_LENGTH = 64;
+
+    private static final byte[] PRERENDERED = ConstrettoPrerenderer.MARKER.getBytes(StandardCharsets.US_ASCII);
+
+    private final boolean binary;
+
+    ConstrettoSourceFormat(boolean binary) {
+        this.binary = binary;
+    }
+
+    /**
+     * @return true if the format is binary; binary sources are not rewritten
+     */
+    boolean isBinary() {
+        return binary;
+    }
+
+    /**
+     * @return A new factory for parsers of the format
+     */
+    JsonFactory createFactory() {
+        switch (this) {
+            case JSON:
+                return new JsonFactory();
+            case SMILE:
+                return new SmileFactory();
+            case CBOR:
+                return new CBORFactory();
+            default:
+                return new YAMLFactory();
+        }
+    }
+
+    /**
+     * Detects the format of the source, and pushes the inspected bytes back
+     *
+     * @param path The path of the source
+     * @param input The source
+     * @return The format of the source
+     * @throws IOException if there is an error reading the source
+     */
+    static ConstrettoSourceFormat detect(String path, PushbackInputStream input) throws IOException {
+        ConstrettoSourceFormat format = fromPath(path);
+        if (format != null) {
+            return format;
+        }
+        byte[] head = new byte[3];
+        return fromHead(head, peek(input, head));
+    }
+
+    /**
+     * Looks for the marker of a source written by ConstrettoPrerenderer at the start of the source,
+     * and pushes the inspected bytes back. The marker is verified when the source has been parsed.
+     *
+     * @param input The source
+     * @return true if the source looks pre-rendered
+     * @throws IOException if there is an error reading the source
+     */
+    boolean isPrerendered(PushbackInputStream input) throws IOException {
+        byte[] head = new byte[HEAD_LENGTH];
+        int length = peek(input, head);
+        if (binary) {
+            // the marker is the name of the first field, which is preceded by a few bytes of structure
+            return indexOf(head, length, PRERENDERED) != -1;
+        }
+        int i = skipWhitespace(head, length, 0);
+        if (startsWith(head, length, i, "---".getBytes(StandardCharsets.US_ASCII))) {
+            i = skipWhitespace(head, length, i + 3);
+        }
+        if (i < length && head[i] == '{') {
+            i = skipWhitespace(head, length, i + 1);
+        }
+        if (i < length && head[i] == '"') {
+            i++;
+        }
+        return startsWith(head, length, i, PRERENDERED);
+    }
+
+    /**
+     * Wraps the source so that its head can be inspected
+     */
+    static PushbackInputStream pushback(InputStream input) {
+        return new PushbackInputStream(input, HEAD_LENGTH);
+    }
+
+    /**
+     * Reads the head of the source into the buffer, and pushes it back
+     *
+     * @return The number of bytes in the head
+     */
+    private static int peek(PushbackInputStream input, byte[] head) throws IOException {
+        int length = 0;
+        int n;
+        while (length < head.length && (n = input.read(head, length, head.length - length)) != -1) {
+            length += n;
+        }
+        input.unread(head, 0, length);
+        return length;
+    }
+
+    private static int skipWhitespace(byte[] head, int length, int from) {
+        int i = from;
+        while (i < length && (head[i] == ' ' || head[i] == '\t' || head[i] == '\n' || head[i] == '\r')) {
+            i++;
+        }
+        return i;
+    }
+
+    private static boolean startsWith(byte[] head, int length, int from, byte[] prefix) {
+        if (length - from < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (head[from + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int indexOf(byte[] head, int length, byte[] bytes) {
+        for (int i = 0; i <= length - bytes.length; i++) {
+            if (startsWith(head, length, i, bytes)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return The format given by the extension of the path, or null if the extension is unknown
+     */
+    static ConstrettoSourceFormat fromPath(String path) {
+        if (path == null) {
+            return null;
+        }
+        String lowerCase = path.toLowerCase(Locale.ENGLISH);
+        if (lowerCase.endsWith(".yml") || lowerCase.endsWith(".yaml")) {
+            return YAML;
+        } else if (lowerCase.endsWith(".json")) {
+            return JSON;
+        } else if (lowerCase.endsWith(".smile") || lowerCase.endsWith(".sml")) {
+            return SMILE;
+        } else if (lowerCase.endsWith(".cbor")) {
+            return CBOR;
+        }
+        return null;
+    }
+
+    /**
+     * @param head The first bytes of the source
+     * @param length The number of bytes in head
+     * @return The format of the source; YAML unless the bytes are recognized
+     */
+    static ConstrettoSourceFormat fromHead(byte[] head, int length) {
+        if (length >= 3 && head[0] == ':' && head[1] == ')' && head[2] == '\n') {
+            return SMILE;
+        }
+        if (length >= 3 && (head[0] & 0xff) == 0xD9 && (head[1] & 0xff) == 0xD9 && (head[2] & 0xff) == 0xF7) {
+            // the CBOR self-describe tag
+            return CBOR;
+        }
+        if (length >= 1 && (head[0] & 0xe0) == 0xa0) {
+            // a CBOR map, which no text encoding of a YAML or JSON document starts with
+            return CBOR;
+        }
+        return YAML;
+    }
+
+}
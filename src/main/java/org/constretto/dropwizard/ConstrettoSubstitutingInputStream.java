@@ -0,0 +1,250 @@
+package org.constretto.dropwizard;
+
+import org.apache.commons.lang3.text.StrLookup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * An InputStream that substitutes '${VAR}' variables as the source passes through, with the rules of
+ * Dropwizard's EnvironmentVariableSubstitutor: '${VAR:-default}' falls back to the default value,
+ * '$${VAR}' is emitted as '${VAR}', variables without a value are left as they are (unless the lookup
+ * is strict and throws), and the substituted values are substituted again.
+ *
+ * The source is processed a line at a time. Lines without a '$' are passed through as bytes; only lines
+ * with a '$' are decoded as UTF-8 and substituted. A variable that is not closed on the same line is
+ * joined with the following lines, and substituted again once a '}' has been read. A variable that is still
+ * not closed after 64 KB is left as it is, like one that is not closed at the end of the source, and is logged.
+ *
+ * @author kjeivers
+ */
+class ConstrettoSubstitutingInputStream extends InputStream {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ConstrettoSubstitutingInputStream.class);
+
+    /**
+     * The number of bytes an unclosed variable is joined with before it is left as it is
+     */
+    static final int MAX_SPAN = 64 * 1024;
+
+    private final InputStream in;
+    private final StrLookup<?> lookup;
+
+    private final byte[] buffer = new byte[8192];
+    private int position;
+    private int limit;
+    private boolean endOfInput;
+
+    private byte[] line = new byte[256];
+    private int lineLength;
+    private boolean lineHasDollar;
+
+    private byte[] output = line;
+    private int outputPosition;
+    private int outputLimit;
+
+    ConstrettoSubstitutingInputStream(InputStream in, StrLookup<?> lookup) {
+        this.in = in;
+        this.lookup = lookup;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (outputPosition == outputLimit && !nextLine()) {
+            return -1;
+        }
+        return output[outputPosition++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (outputPosition == outputLimit && !nextLine()) {
+            return -1;
+        }
+        int n = Math.min(len, outputLimit - outputPosition);
+        System.arraycopy(output, outputPosition, b, off, n);
+        outputPosition += n;
+        return n;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /**
+     * Reads and substitutes the next line (or lines, if a variable spans them) into the output
+     *
+     * @return false at the end of the source
+     */
+    private boolean nextLine() throws IOException {
+        lineLength = 0;
+        lineHasDollar = false;
+        if (!appendLine()) {
+            return false;
+        }
+        if (!lineHasDollar) {
+            output = line;
+        } else {
+            String substituted = substitute(decodeLine(), atEnd(), new HashSet<String>());
+            while (substituted == null) {
+                int appended;
+                do {
+                    // only a '}' in the appended lines can close the variable
+                    appended = lineLength;
+                    appendLine();
+                } while (!contains('}', appended) && !atEnd() && lineLength <= MAX_SPAN);
+                boolean complete = atEnd() || lineLength > MAX_SPAN;
+                substituted = substitute(decodeLine(), complete, new HashSet<String>());
+                if (complete && !atEnd()) {
+                    LOG.warn("A variable is not closed within {} bytes, and is left as it is: {}", MAX_SPAN,
+                            new String(line, 0, Math.min(lineLength, 80), StandardCharsets.UTF_8));
+                }
+            }
+            output = substituted.getBytes(StandardCharsets.UTF_8);
+        }
+        outputPosition = 0;
+        outputLimit = lineHasDollar ? output.length : lineLength;
+        return outputLimit > 0 || nextLine();
+    }
+
+    private String decodeLine() {
+        return new String(line, 0, lineLength, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return true if the line contains the character from the given index
+     */
+    private boolean contains(char c, int from) {
+        for (int i = from; i < lineLength; i++) {
+            if (line[i] == c) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if the source has been read to the end
+     */
+    private boolean atEnd() {
+        return endOfInput && position == limit;
+    }
+
+    /**
+     * Appends the bytes up to and including the next line terminator to the line
+     *
+     * @return false if there was nothing left to append
+     */
+    private boolean appendLine() throws IOException {
+        int start = lineLength;
+        while (true) {
+            if (position == limit) {
+                if (endOfInput || !fill()) {
+                    return lineLength > start;
+                }
+            }
+            int end = position;
+            while (end < limit && buffer[end] != '\n') {
+                lineHasDollar |= buffer[end] == '$';
+                end++;
+            }
+            boolean terminated = end < limit;
+            if (terminated) {
+                end++;
+            }
+            int n = end - position;
+            if (lineLength + n > line.length) {
+                line = Arrays.copyOf(line, Math.max(line.length * 2, lineLength + n));
+            }
+            System.arraycopy(buffer, position, line, lineLength, n);
+            lineLength += n;
+            position = end;
+            if (terminated) {
+                return true;
+            }
+        }
+    }
+
+    private boolean fill() throws IOException {
+        int n;
+        do {
+            n = in.read(buffer, 0, buffer.length);
+        } while (n == 0);
+        if (n == -1) {
+            endOfInput = true;
+            return false;
+        }
+        position = 0;
+        limit = n;
+        return true;
+    }
+
+    /**
+     * @param text The text to substitute
+     * @param complete true if no more text follows; an unclosed variable is then left as it is
+     * @param resolving The variables being substituted, to detect cycles
+     * @return The substituted text, or null if a variable is not closed and more text follows
+     */
+    private String substitute(String text, boolean complete, Set<String> resolving) {
+        StringBuilder result = new StringBuilder(text.length());
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            char c = text.charAt(i);
+            if (c == '$' && i + 2 < length && text.charAt(i + 1) == '$' && text.charAt(i + 2) == '{') {
+                // an escaped variable
+                result.append("${");
+                i += 3;
+            } else if (c == '$' && i + 1 < length && text.charAt(i + 1) == '{') {
+                int end = text.indexOf('}', i + 2);
+                if (end == -1) {
+                    if (!complete) {
+                        return null;
+                    }
+                    result.append(text, i, length);
+                    break;
+                }
+                result.append(resolve(text.substring(i + 2, end), resolving));
+                i = end + 1;
+            } else {
+                result.append(c);
+                i++;
+            }
+        }
+        return result.toString();
+    }
+
+    /**
+     * @param expression The variable name, optionally followed by ':-' and a default value
+     * @param resolving The variables being substituted, to detect cycles
+     * @return The substituted value, or the variable itself if it has no value
+     */
+    private String resolve(String expression, Set<String> resolving) {
+        int delimiter = expression.indexOf(":-");
+        String name = delimiter == -1 ? expression : expression.substring(0, delimiter);
+        String value = lookup.lookup(name);
+        if (value == null && delimiter != -1) {
+            value = expression.substring(delimiter + 2);
+        }
+        if (value == null) {
+            return "${" + expression + "}";
+        }
+        if (!resolving.add(name)) {
+            throw new IllegalStateException("Infinite loop in property interpolation of ${" + name + "}");
+        }
+        String substituted = substitute(value, true, resolving);
+        resolving.remove(name);
+        return substituted;
+    }
+
+}
@@ -0,0 +1,57 @@
+package org.constretto.dropwizard;
+
+import io.dropwizard.configuration.ConfigurationSourceProvider;
+import io.dropwizard.configuration.EnvironmentVariableLookup;
+import org.apache.commons.lang3.text.StrLookup;
+
+import java.io.InputStream;
+
+/**
+ * Decorates a ConfigurationSourceProvider with both '${VAR}' substitution and the '@' constretto tag syntax,
+ * in a single streaming pass over the source.
+ *
+ * This replaces wrapping the source in Dropwizard's SubstitutingSourceProvider and then in a
+ * ConstrettoConfigurationProvider, which reads the complete source into memory. The variables are substituted
+ * before the '@' tags are rewritten, with the same rules as EnvironmentVariableSubstitutor. Binary sources are
+ * passed through unchanged; sources pre-rendered by ConstrettoPrerenderer are substituted, but not rewritten.
+ *
+ * @author kjeivers
+ */
+public class ConstrettoSubstitutingProvider extends ConstrettoConfigurationProvider {
+
+    private final StrLookup<?> lookup;
+
+    /**
+     * Substitutes environment variables; an undefined variable fails the build
+     *
+     * @param source The provider of the configuration source
+     */
+    public ConstrettoSubstitutingProvider(ConfigurationSourceProvider source) {
+        this(source, true);
+    }
+
+    /**
+     * Substitutes environment variables
+     *
+     * @param source The provider of the configuration source
+     * @param strict true if an undefined variable fails the build; otherwise it is left as it is
+     */
+    public ConstrettoSubstitutingProvider(ConfigurationSourceProvider source, boolean strict) {
+        this(source, new EnvironmentVariableLookup(strict));
+    }
+
+    /**
+     * @param source The provider of the configuration source
+     * @param lookup The values of the variables
+     */
+    public ConstrettoSubstitutingProvider(ConfigurationSourceProvider source, StrLookup<?> lookup) {
+        super(source);
+        this.lookup = lookup;
+    }
+
+    @Override
+    InputStream substitute(InputStream input) {
+        return new ConstrettoSubstitutingInputStream(input, lookup);
+    }
+
+}
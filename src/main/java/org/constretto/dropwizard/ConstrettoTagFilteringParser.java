@@ -0,0 +1,336 @@
+package org.constretto.dropwizard;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.util.JsonParserDelegate;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A JsonParser that filters the constretto-tagged token stream of the parser it wraps,
+ * based on the set of active constretto tags.
+ *
+ * Inactive '.tag.key' fields and '- .tag:' list elements are skipped as the tokens go by,
+ * and active '.tag.key' fields are renamed to 'key'. Only the state of the currently open
+ * containers is kept, so the unfiltered document is never materialized.
+ *
+ * An active tagged field is emitted where it occurs in the stream, so an untagged field with
+ * the same name that precedes it shows up twice. Reading the filtered stream into a tree
+ * (or binding it) keeps the last value, which gives the same result as the tree-based filter.
+ *
+ * @author kjeivers
+ */
+class ConstrettoTagFilteringParser extends JsonParserDelegate {
+
+    private static final Object ARRAY_SCOPE = new Object();
+
+    private final ConstrettoTags activeTags;
+    private final ConstrettoTags.Counts counts;
+
+    /**
+     * One entry per open container: ARRAY_SCOPE for arrays, an ObjectScope for objects
+     */
+    private final Deque<Object> scopes = new ArrayDeque<>();
+
+    private JsonToken currentToken;
+
+    /**
+     * The field name to report instead of the name of the underlying parser (renamed or replayed fields)
+     */
+    private String currentName;
+
+    /**
+     * Field name (and the value the underlying parser is positioned at) read ahead while looking for a list element tag
+     */
+    private String pendingName;
+    private boolean pendingValue;
+
+    /**
+     * The current token of the underlying parser was read ahead and must be processed by the next call to nextToken()
+     */
+    private boolean reprocess;
+
+    ConstrettoTagFilteringParser(JsonParser parser, Collection<String> activeTags) {
+        this(parser, ConstrettoTags.of(activeTags), new ConstrettoTags.Counts());
+    }
+
+    ConstrettoTagFilteringParser(JsonParser parser, ConstrettoTags activeTags, ConstrettoTags.Counts counts) {
+        super(parser);
+        this.activeTags = activeTags;
+        this.counts = counts;
+    }
+
+    @Override
+    public JsonToken nextToken() throws IOException {
+        currentName = null;
+        if (pendingName != null) {
+            currentName = pendingName;
+            pendingName = null;
+            pendingValue = true;
+            return currentToken = JsonToken.FIELD_NAME;
+        }
+        if (pendingValue) {
+            pendingValue = false;
+            return currentToken = delegate.getCurrentToken();
+        }
+        JsonToken token;
+        if (reprocess) {
+            reprocess = false;
+            token = delegate.getCurrentToken();
+        } else {
+            token = delegate.nextToken();
+        }
+        while (token != null) {
+            switch (token) {
+                case FIELD_NAME:
+                    if (acceptField(delegate.getCurrentName())) {
+                        return currentToken = token;
+                    }
+                    // skip the value of the rejected field
+                    delegate.nextToken();
+                    delegate.skipChildren();
+                    token = delegate.nextToken();
+                    break;
+                case START_OBJECT:
+                    if (scopes.peek() == ARRAY_SCOPE && !acceptListElement()) {
+                        token = delegate.nextToken();
+                        break;
+                    }
+                    scopes.push(new ObjectScope());
+                    return currentToken = token;
+                case START_ARRAY:
+                    scopes.push(ARRAY_SCOPE);
+                    return currentToken = token;
+                case END_OBJECT:
+                case END_ARRAY:
+                    scopes.pop();
+                    return currentToken = token;
+                default:
+                    return currentToken = token;
+            }
+        }
+        return currentToken = null;
+    }
+
+    /**
+     * @param fieldName The name of the field at the current position of the underlying parser
+     * @return true if the field should be emitted, false if the field (and its value) should be skipped
+     */
+    private boolean acceptField(String fieldName) {
+        ObjectScope scope = (ObjectScope) scopes.peek();
+        if (fieldName.startsWith(".")) {
+            int dot2 = fieldName.indexOf('.', 1);
+            if (dot2 != -1) {
+                if (counts.count(activeTags.isActive(fieldName, 1, dot2))) {
+                    currentName = fieldName.substring(dot2 + 1);
+                    scope.override(currentName);
+                    return true;
+                }
+                return false;
+            }
+        }
+        return !scope.isOverridden(fieldName);
+    }
+
+    /**
+     * Looks ahead into a list element that starts at the current position of the underlying parser.
+     * If the first child element consists of a constretto-tag and nothing more ('- .production:'),
+     * the tag is consumed, and the element is skipped entirely if the tag is inactive.
+     *
+     * @return true if the element should be emitted
+     */
+    private boolean acceptListElement() throws IOException {
+        JsonToken token = delegate.nextToken();
+        if (token == JsonToken.FIELD_NAME) {
+            String fieldName = delegate.getCurrentName();
+            if (fieldName.startsWith(".") && fieldName.indexOf('.', 1) == -1) {
+                JsonToken value = delegate.nextToken();
+                if (isTagMarker(value)) {
+                    delegate.skipChildren();
+                    if (counts.count(activeTags.isActive(fieldName, 1, fieldName.length()))) {
+                        return true;
+                    }
+                    skipToEndOfObject();
+                    return false;
+                }
+                pendingName = fieldName;
+                return true;
+            }
+        }
+        reprocess = true;
+        return true;
+    }
+
+    /**
+     * The value of a tag marker is empty: null, "" or "null" (or a container, which has an empty text value)
+     */
+    private boolean isTagMarker(JsonToken value) throws IOException {
+        switch (value) {
+            case VALUE_NULL:
+            case START_OBJECT:
+            case START_ARRAY:
+                return true;
+            case VALUE_STRING:
+                String text = delegate.getText();
+                return text.isEmpty() || "null".equals(text);
+            default:
+                return false;
+        }
+    }
+
+    private void skipToEndOfObject() throws IOException {
+        int depth = 1;
+        while (depth > 0) {
+            JsonToken token = delegate.nextToken();
+            if (token == null) {
+                return;
+            } else if (token.isStructStart()) {
+                depth++;
+            } else if (token.isStructEnd()) {
+                depth--;
+            }
+        }
+    }
+
+    @Override
+    public JsonToken nextValue() throws IOException {
+        JsonToken token = nextToken();
+        if (token == JsonToken.FIELD_NAME) {
+            token = nextToken();
+        }
+        return token;
+    }
+
+    @Override
+    public JsonParser skipChildren() throws IOException {
+        if (currentToken != JsonToken.START_OBJECT && currentToken != JsonToken.START_ARRAY) {
+            return this;
+        }
+        int depth = 1;
+        while (depth > 0) {
+            JsonToken token = nextToken();
+            if (token == null) {
+                return this;
+            } else if (token.isStructStart()) {
+                depth++;
+            } else if (token.isStructEnd()) {
+                depth--;
+            }
+        }
+        return this;
+    }
+
+    @Override
+    public JsonToken getCurrentToken() {
+        return currentToken;
+    }
+
+    @Override
+    public int getCurrentTokenId() {
+        return currentToken == null ? 0 : currentToken.id();
+    }
+
+    @Override
+    public boolean hasCurrentToken() {
+        return currentToken != null;
+    }
+
+    @Override
+    public boolean hasTokenId(int id) {
+        return currentToken == null ? id == 0 : currentToken.id() == id;
+    }
+
+    @Override
+    public boolean hasToken(JsonToken token) {
+        return currentToken == token;
+    }
+
+    @Override
+    public boolean isExpectedStartArrayToken() {
+        return currentToken == JsonToken.START_ARRAY;
+    }
+
+    @Override
+    public boolean isExpectedStartObjectToken() {
+        return currentToken == JsonToken.START_OBJECT;
+    }
+
+    @Override
+    public void clearCurrentToken() {
+        currentToken = null;
+    }
+
+    @Override
+    public String getCurrentName() throws IOException {
+        return currentName != null ? currentName : delegate.getCurrentName();
+    }
+
+    @Override
+    public String getText() throws IOException {
+        if (currentToken == null) {
+            return null;
+        } else if (currentToken == JsonToken.FIELD_NAME) {
+            return getCurrentName();
+        } else if (currentToken.isStructStart() || currentToken.isStructEnd()) {
+            return currentToken.asString();
+        }
+        return delegate.getText();
+    }
+
+    @Override
+    public boolean hasTextCharacters() {
+        return currentName == null && delegate.hasTextCharacters();
+    }
+
+    @Override
+    public char[] getTextCharacters() throws IOException {
+        return currentName != null ? currentName.toCharArray() : delegate.getTextCharacters();
+    }
+
+    @Override
+    public int getTextLength() throws IOException {
+        return currentName != null ? currentName.length() : delegate.getTextLength();
+    }
+
+    @Override
+    public int getTextOffset() throws IOException {
+        return currentName != null ? 0 : delegate.getTextOffset();
+    }
+
+    @Override
+    public String getValueAsString() throws IOException {
+        return currentToken == JsonToken.FIELD_NAME ? getCurrentName() : delegate.getValueAsString();
+    }
+
+    @Override
+    public String getValueAsString(String defaultValue) throws IOException {
+        return currentToken == JsonToken.FIELD_NAME ? getCurrentName() : delegate.getValueAsString(defaultValue);
+    }
+
+    /**
+     * The names of the fields in an open object that have been set from an active tagged field,
+     * and thus take precedence over untagged fields with the same name
+     */
+    private static class ObjectScope {
+
+        private Set<String> overridden;
+
+        void override(String fieldName) {
+            if (overridden == null) {
+                overridden = new HashSet<>();
+            }
+            overridden.add(fieldName);
+        }
+
+        boolean isOverridden(String fieldName) {
+            return overridden != null && overridden.contains(fieldName);
+        }
+
+    }
+
+}
@@ -0,0 +1,101 @@
+package org.constretto.dropwizard;
+
+import com.google.common.collect.ImmutableSet;
+import io.dropwizard.lifecycle.Managed;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Polls the tag resolver, and switches the configuration to the new tags when they change.
+ *
+ * The configuration for the new tags is resolved from the source and the included fragments read by the build of the
+ * running configuration, so a switch reads nothing, never loads edits that a reload has not validated, and takes
+ * microseconds to milliseconds, depending on the size of the configuration. The factory is expected to prepare
+ * each build for switching (see ConstrettoConfigurationFactory.withTagSwitching()). The new configuration is validated
+ * before it is published; an invalid configuration is logged once and rejected, leaving the previous snapshot
+ * in place until the tags change again.
+ *
+ * @author kjeivers
+ */
+class ConstrettoTagSwitcher implements Managed {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ConstrettoTagSwitcher.class);
+
+    private final ConstrettoConfigurationFactory<?> factory;
+    private final long intervalMillis;
+
+    private ScheduledExecutorService executor;
+    private Set<String> rejectedTags;
+
+    /**
+     * @param factory The factory that built the current configuration
+     * @param intervalMillis How often the tag resolver is polled
+     */
+    ConstrettoTagSwitcher(ConstrettoConfigurationFactory<?> factory, long intervalMillis) {
+        this.factory = factory;
+        this.intervalMillis = intervalMillis;
+    }
+
+    @Override
+    public void start() throws Exception {
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "constretto-tags");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                poll();
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void stop() throws Exception {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Switches the configuration if the tags have changed since the last build
+     *
+     * @return true if the configuration was switched
+     */
+    boolean poll() {
+        try {
+            Set<String> tags = ImmutableSet.copyOf(factory.getTagResolver().getTags());
+            Set<String> previous = factory.getLastTags();
+            if (tags.equals(previous) || tags.equals(rejectedTags)) {
+                return false;
+            }
+            long start = System.nanoTime();
+            try {
+                factory.switchTags(tags);
+            } catch (Exception e) {
+                rejectedTags = tags;
+                LOG.error("Rejected the configuration for the tags {}, keeping the configuration for {}", tags, previous, e);
+                return false;
+            }
+            rejectedTags = null;
+            LOG.info("Switched the configuration from the tags {} to {} in {} microseconds",
+                    previous, tags, TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+            return true;
+        } catch (Exception e) {
+            LOG.error("Unable to check the constretto tags", e);
+            return false;
+        }
+    }
+
+}
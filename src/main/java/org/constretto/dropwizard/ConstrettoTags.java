@@ -0,0 +1,189 @@
+package org.constretto.dropwizard;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+
+/**
+ * A dictionary of constretto tag names, with the set of active tags as a bitset over the dictionary.
+ *
+ * Tags are looked up directly from a region of a key ('production' in '.production.url'),
+ * without allocating a substring, in an open-addressed hash table.
+ *
+ * @author kjeivers
+ */
+final class ConstrettoTags {
+
+    private String[] names = new String[16];
+    private int[] indices = new int[16];
+    private String[] byIndex = new String[8];
+    private int size;
+    private final BitSet active = new BitSet();
+
+    /**
+     * @param activeTags The set of active constretto tags
+     * @return A dictionary containing the active tags, all of them active
+     */
+    static ConstrettoTags of(Collection<String> activeTags) {
+        ConstrettoTags tags = new ConstrettoTags();
+        if (activeTags != null) {
+            for (String tag : activeTags) {
+                tags.activate(tags.intern(tag));
+            }
+        }
+        return tags;
+    }
+
+    /**
+     * Adds the tag to the dictionary if it is not already present
+     *
+     * @param tag The tag name
+     * @return The index of the tag in the dictionary
+     */
+    int intern(String tag) {
+        int index = indexOf(tag, 0, tag.length());
+        if (index >= 0) {
+            return index;
+        }
+        if ((size + 1) * 2 > names.length) {
+            rehash(names.length * 2);
+        }
+        if (size == byIndex.length) {
+            byIndex = Arrays.copyOf(byIndex, size * 2);
+        }
+        byIndex[size] = insert(tag, size);
+        return size++;
+    }
+
+    /**
+     * @param key The key containing the tag name
+     * @param start The index of the first character of the tag name
+     * @param end The index after the last character of the tag name
+     * @return The index of the tag in the dictionary, or -1 if the tag is unknown
+     */
+    int indexOf(String key, int start, int end) {
+        int length = end - start;
+        int mask = names.length - 1;
+        for (int slot = hash(key, start, end) & mask; names[slot] != null; slot = (slot + 1) & mask) {
+            String name = names[slot];
+            if (name.length() == length && name.regionMatches(0, key, start, length)) {
+                return indices[slot];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Looks up the tag of a tagged key. Safe to call from several threads once the dictionary is complete.
+     *
+     * @return true if the tag in the region of the key is an active tag
+     */
+    boolean isActive(String key, int start, int end) {
+        int index = indexOf(key, start, end);
+        return index >= 0 && active.get(index);
+    }
+
+    /**
+     * @param index The index of a tag in the dictionary
+     */
+    void activate(int index) {
+        active.set(index);
+    }
+
+    /**
+     * @return The number of tags in the dictionary
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @param index The index of a tag in the dictionary
+     * @return The tag name
+     */
+    String name(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException(String.valueOf(index));
+        }
+        return byIndex[index];
+    }
+
+    private String insert(String tag, int index) {
+        int mask = names.length - 1;
+        int slot = hash(tag, 0, tag.length()) & mask;
+        while (names[slot] != null) {
+            slot = (slot + 1) & mask;
+        }
+        names[slot] = tag.intern();
+        indices[slot] = index;
+        return names[slot];
+    }
+
+    private void rehash(int capacity) {
+        String[] oldNames = names;
+        int[] oldIndices = indices;
+        names = new String[capacity];
+        indices = new int[capacity];
+        for (int slot = 0; slot < oldNames.length; slot++) {
+            if (oldNames[slot] != null) {
+                insert(oldNames[slot], oldIndices[slot]);
+            }
+        }
+    }
+
+    /**
+     * The same hash as String.hashCode() of the region, spread to make use of the low bits
+     */
+    private static int hash(String key, int start, int end) {
+        int h = 0;
+        for (int i = start; i < end; i++) {
+            h = 31 * h + key.charAt(i);
+        }
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * The number of tagged keys a filter kept and dropped while filtering one configuration.
+     * Owned by one thread at a time; a filter that splits its work across threads adds up the counts of its parts.
+     */
+    static final class Counts {
+        private int kept;
+        private int dropped;
+
+        /**
+         * @param active The result of looking up the tag of a tagged key
+         * @return active
+         */
+        boolean count(boolean active) {
+            if (active) {
+                kept++;
+            } else {
+                dropped++;
+            }
+            return active;
+        }
+
+        /**
+         * @param counts The counts of a part of the configuration, filtered on another thread
+         */
+        void add(Counts counts) {
+            kept += counts.kept;
+            dropped += counts.dropped;
+        }
+
+        /**
+         * @return The number of tagged keys with an active tag
+         */
+        int kept() {
+            return kept;
+        }
+
+        /**
+         * @return The number of tagged keys with an inactive tag
+         */
+        int dropped() {
+            return dropped;
+        }
+    }
+
+}
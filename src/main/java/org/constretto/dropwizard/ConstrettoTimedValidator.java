@@ -0,0 +1,65 @@
+package org.constretto.dropwizard;
+
+import javax.validation.ConstraintViolation;
+import javax.validation.Validator;
+import javax.validation.executable.ExecutableValidator;
+import javax.validation.metadata.BeanDescriptor;
+import java.util.Set;
+
+/**
+ * A Validator that records the time spent validating as the VALIDATE phase of the build on the current thread.
+ *
+ * The validation is the last step of the binding in the default ConfigurationFactory, which has no hook of its own.
+ *
+ * @author kjeivers
+ */
+class ConstrettoTimedValidator implements Validator {
+
+    private final Validator delegate;
+
+    ConstrettoTimedValidator(Validator delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public <T> Set<ConstraintViolation<T>> validate(T object, Class<?>... groups) {
+        ConstrettoConfigurationMetrics.Recording recording = ConstrettoConfigurationMetrics.current();
+        if (recording == null) {
+            return delegate.validate(object, groups);
+        }
+        long startAllocated = ConstrettoConfigurationMetrics.allocatedBytes();
+        long start = System.nanoTime();
+        try {
+            return delegate.validate(object, groups);
+        } finally {
+            recording.add(ConstrettoConfigurationMetrics.Phase.VALIDATE, System.nanoTime() - start,
+                    ConstrettoConfigurationMetrics.allocatedBytes() - startAllocated);
+        }
+    }
+
+    @Override
+    public <T> Set<ConstraintViolation<T>> validateProperty(T object, String propertyName, Class<?>... groups) {
+        return delegate.validateProperty(object, propertyName, groups);
+    }
+
+    @Override
+    public <T> Set<ConstraintViolation<T>> validateValue(Class<T> beanType, String propertyName, Object value, Class<?>... groups) {
+        return delegate.validateValue(beanType, propertyName, value, groups);
+    }
+
+    @Override
+    public BeanDescriptor getConstraintsForClass(Class<?> clazz) {
+        return delegate.getConstraintsForClass(clazz);
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> type) {
+        return delegate.unwrap(type);
+    }
+
+    @Override
+    public ExecutableValidator forExecutables() {
+        return delegate.forExecutables();
+    }
+
+}
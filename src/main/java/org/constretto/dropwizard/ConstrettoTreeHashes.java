@@ -0,0 +1,88 @@
+package org.constretto.dropwizard;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import java.nio.charset.StandardCharsets;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Structural hashes of the containers in a configuration tree, computed once, bottom-up.
+ *
+ * Equal subtrees have equal hashes regardless of field order, so comparing the hashes of two
+ * subtrees is a cheap way of skipping the ones that have not changed. Field names and scalar values are hashed
+ * by their content with murmur3, not by String.hashCode(), so that values like 'Aa' and 'BB' are told apart.
+ *
+ * @author kjeivers
+ */
+final class ConstrettoTreeHashes {
+
+    private static final long MISSING = 0x9E3779B97F4A7C15L;
+    private static final HashFunction CONTENT = Hashing.murmur3_128();
+
+    private final Map<JsonNode, Long> hashes = new IdentityHashMap<>();
+
+    ConstrettoTreeHashes(JsonNode root) {
+        if (root != null) {
+            compute(root);
+        }
+    }
+
+    /**
+     * @param node A node of the tree the hashes were computed for, or a missing node
+     * @return The structural hash of the node
+     */
+    long get(JsonNode node) {
+        if (node == null || node.isMissingNode()) {
+            return MISSING;
+        }
+        if (node.isContainerNode()) {
+            Long hash = hashes.get(node);
+            return hash != null ? hash : compute(node);
+        }
+        return scalarHash(node);
+    }
+
+    private long compute(JsonNode node) {
+        long hash;
+        if (node.isObject()) {
+            // order-insensitive, like ObjectNode.equals()
+            hash = 1;
+            Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
+            while (fields.hasNext()) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                hash += mix(CONTENT.hashString(field.getKey(), StandardCharsets.UTF_8).asLong() * 31 + compute(field.getValue()));
+            }
+        } else if (node.isArray()) {
+            hash = 2;
+            for (JsonNode element : node) {
+                hash = hash * 31 + compute(element);
+            }
+            hash = mix(hash);
+        } else {
+            return scalarHash(node);
+        }
+        hashes.put(node, hash);
+        return hash;
+    }
+
+    private static long scalarHash(JsonNode node) {
+        return CONTENT.newHasher()
+                .putInt(node.getNodeType().ordinal())
+                .putString(node.asText(), StandardCharsets.UTF_8)
+                .hash().asLong();
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+}
@@ -0,0 +1,85 @@
+package org.constretto.dropwizard;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.dropwizard.configuration.ConfigurationSourceProvider;
+import org.junit.Test;
+
+import javax.validation.Validation;
+import javax.validation.Validator;
+import javax.validation.constraints.NotNull;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * @author kjeivers
+ */
+public class ConstrettoCheckCommandTest {
+
+    private static final String YML =
+            "scalar: defaultVal\n" +
+            "@production.scalar: productionVal\n" +
+            "@broken.scalar: null\n";
+
+    private final Validator validator = Validation.buildDefaultValidatorFactory().getValidator();
+    private final AtomicInteger opened = new AtomicInteger();
+    private final ConfigurationSourceProvider provider = new ConstrettoConfigurationProvider(new ConfigurationSourceProvider() {
+        @Override
+        public InputStream open(String path) {
+            opened.incrementAndGet();
+            return new ByteArrayInputStream(YML.getBytes(StandardCharsets.UTF_8));
+        }
+    });
+
+    @Test
+    public void testEachTagSetIsValidatedFromOneParse() throws Exception {
+        List<List<String>> tagSets = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            tagSets.add(Arrays.asList("region" + i, i % 2 == 0 ? "production" : "staging"));
+        }
+        tagSets.add(Arrays.asList("broken"));
+        tagSets.add(Collections.<String>emptyList());
+        List<ConstrettoCheckCommand.Result> results = new ConstrettoCheckCommand()
+                .check(TestConfiguration.class, validator, new ObjectMapper(), provider, "config.yml", tagSets, 4);
+        assertThat(opened.get()).isEqualTo(1);
+        assertThat(results).hasSize(22);
+        for (int i = 0; i < 20; i++) {
+            assertThat(results.get(i).isValid()).isTrue();
+            assertThat(results.get(i).getTags()).isEqualTo(tagSets.get(i));
+        }
+        assertThat(results.get(20).isValid()).isFalse();
+        assertThat(results.get(20).getError()).contains("scalar may not be null");
+        assertThat(results.get(20).toString()).startsWith("FAIL  broken");
+        assertThat(results.get(21).isValid()).isTrue();
+        assertThat(results.get(21).toString()).startsWith("PASS  (no tags)");
+    }
+
+    @Test
+    public void testEmptySourceFailsEveryTagSet() throws Exception {
+        ConfigurationSourceProvider empty = new ConfigurationSourceProvider() {
+            @Override
+            public InputStream open(String path) {
+                return new ByteArrayInputStream(new byte[0]);
+            }
+        };
+        List<ConstrettoCheckCommand.Result> results = new ConstrettoCheckCommand().check(TestConfiguration.class, validator,
+                new ObjectMapper(), empty, "config.yml", Arrays.asList(Arrays.asList("a"), Arrays.asList("b")), 2);
+        assertThat(results.get(0).isValid()).isFalse();
+        assertThat(results.get(1).getError()).contains("must not be empty");
+    }
+
+    public static class TestConfiguration {
+        @NotNull
+        @JsonProperty
+        public String scalar;
+    }
+
+}
@@ -0,0 +1,106 @@
+package org.constretto.dropwizard;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import io.dropwizard.configuration.FileConfigurationSourceProvider;
+import org.constretto.resolver.ConfigurationContextResolver;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/**
+ * @author kjeivers
+ */
+public class ConstrettoCompactTreeTest {
+
+    private static final String YML =
+            "primary:\n" +
+            "  pool: {min: 1, max: 10, name: pool}\n" +
+            "  hosts: [a, b]\n" +
+            "standby:\n" +
+            "  pool: {min: 1, max: 10, name: pool}\n" +
+            "  hosts: [a, b]\n" +
+            "other:\n" +
+            "  pool: {max: 10, min: 1, name: pool}\n" +
+            "  hosts: [b, a]\n" +
+            "empty: {}\n" +
+            "none: []\n" +
+            "numbers: [1, 1.0, 1, true, null]\n";
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @Test
+    public void testCompactTreeIsEqual() throws IOException {
+        JsonNode tree = parse(YML);
+        JsonNode compact = ConstrettoCompactTree.compact(tree);
+        assertEquals(tree, compact);
+        assertThat(mapper.writeValueAsString(compact)).isEqualTo(mapper.writeValueAsString(tree));
+        assertThat(ConstrettoCompactTree.compact(null)).isNull();
+    }
+
+    @Test
+    public void testIdenticalSubtreesAreShared() throws IOException {
+        JsonNode compact = ConstrettoCompactTree.compact(parse(YML));
+        assertSame(compact.get("primary"), compact.get("standby"));
+        assertSame(compact.get("primary").get("pool").get("name"), compact.get("other").get("pool").get("name"));
+        assertSame(compact.get("numbers").get(0), compact.get("numbers").get(2));
+    }
+
+    @Test
+    public void testOrderIsPreserved() throws IOException {
+        JsonNode compact = ConstrettoCompactTree.compact(parse(YML));
+        // equal objects in a different order are kept apart, so that the field order is unchanged
+        assertNotSame(compact.get("primary").get("pool"), compact.get("other").get("pool"));
+        assertThat(names(compact.get("other").get("pool"))).isEqualTo(Arrays.asList("max", "min", "name"));
+        assertThat(compact.get("other").get("hosts").get(0).asText()).isEqualTo("b");
+        assertNotSame(compact.get("numbers").get(0), compact.get("numbers").get(1));
+    }
+
+    @Test
+    public void testNamesAndTextsAreInterned() throws IOException {
+        JsonNode compact = ConstrettoCompactTree.compact(parse(YML));
+        assertThat(compact.get("primary").get("pool").get("name").textValue()).isSameAs("pool");
+        assertThat(names(compact).get(0)).isSameAs("primary");
+    }
+
+    @Test
+    public void testPublishedTreeIsCompacted() throws Exception {
+        ConstrettoReloadableConfiguration<JsonNode> configuration = new ConstrettoReloadableConfiguration<>();
+        ConstrettoConfigurationFactory<JsonNode> factory = new ConstrettoConfigurationFactory<>(
+                JsonNode.class, null, mapper, "", new ConfigurationContextResolver() {
+                    @Override
+                    public List<String> getTags() {
+                        return Arrays.asList("production");
+                    }
+                }).withReloadable(configuration).withTagSwitching(true);
+        factory.build(new ConstrettoConfigurationProvider(new FileConfigurationSourceProvider()), "src/test/resources/test-application.yml");
+        JsonNode tree = configuration.getSnapshot().getTree();
+        assertEquals(configuration.get(), tree);
+        assertNotSame(configuration.get(), tree);
+        assertEquals(tree, factory.switchTags(Arrays.asList("production")));
+    }
+
+    private static List<String> names(JsonNode node) {
+        List<String> names = new ArrayList<>();
+        Iterator<String> fieldNames = node.fieldNames();
+        while (fieldNames.hasNext()) {
+            names.add(fieldNames.next());
+        }
+        return names;
+    }
+
+    private JsonNode parse(String yml) throws IOException {
+        return mapper.readTree(new YAMLFactory().createParser(yml));
+    }
+
+}
@@ -0,0 +1,146 @@
+package org.constretto.dropwizard;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.dropwizard.configuration.ConfigurationException;
+import io.dropwizard.configuration.ConfigurationSourceProvider;
+import org.constretto.resolver.ConfigurationContextResolver;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import javax.validation.Validation;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author kjeivers
+ */
+public class ConstrettoConfigurationCacheTest {
+
+    private static final String YML =
+            "scalar: testVal\n" +
+            ".staging.scalar: stagingVal\n";
+
+    Path directory;
+    ConstrettoConfigurationCache cache;
+    ConstrettoConfigurationFactory<TestConfiguration> factory;
+    ObjectMapper mapper = new ObjectMapper();
+    @Mock
+    ConfigurationContextResolver tagResolver;
+    @Mock
+    ConfigurationSourceProvider source;
+
+    @Before
+    public void setup() throws IOException {
+        MockitoAnnotations.initMocks(this);
+        directory = Files.createTempDirectory("constretto-cache");
+        cache = new ConstrettoConfigurationCache(directory);
+        factory = new ConstrettoConfigurationFactory<>(
+                TestConfiguration.class,
+                Validation.buildDefaultValidatorFactory().getValidator(),
+                mapper,
+                "",
+                tagResolver).withCache(cache);
+    }
+
+    @After
+    public void cleanup() throws IOException {
+        for (File file : directory.toFile().listFiles()) {
+            Files.delete(file.toPath());
+        }
+        Files.delete(directory);
+    }
+
+    @Test
+    public void testKeyDependsOnContentAndSortedTags() {
+        byte[] content = YML.getBytes(StandardCharsets.UTF_8);
+        String key = cache.key("path", content, Arrays.asList("a", "b"));
+        assertThat(cache.key("path", content, Arrays.asList("b", "a"))).isEqualTo(key);
+        assertThat(cache.key("path", content, Arrays.asList("a"))).isNotEqualTo(key);
+        assertThat(cache.key("path", (YML + "\n").getBytes(StandardCharsets.UTF_8), Arrays.asList("a", "b"))).isNotEqualTo(key);
+        assertThat(cache.key("other", content, Arrays.asList("a", "b"))).isNotEqualTo(key);
+    }
+
+    @Test
+    public void testFilteredTreeIsStoredAndReused() throws IOException, ConfigurationException {
+        when(tagResolver.getTags()).thenReturn(Arrays.asList("staging"));
+        whenOpenSource(YML);
+        assertThat(factory.build(source, "path").scalar).isEqualTo("stagingVal");
+        assertThat(directory.toFile().list()).hasSize(1);
+
+        // replace the cached entry to verify that it is used instead of the source
+        String key = cache.key("path", YML.getBytes(StandardCharsets.UTF_8), Arrays.asList("staging"));
+        cache.write(key, mapper.readTree("{\"scalar\":\"cachedVal\"}"), mapper);
+        whenOpenSource(YML);
+        assertThat(factory.build(source, "path").scalar).isEqualTo("cachedVal");
+    }
+
+    @Test
+    public void testEntriesOfOtherTagsAreKept() throws IOException, ConfigurationException {
+        when(tagResolver.getTags()).thenReturn(Arrays.asList("staging"));
+        whenOpenSource(YML);
+        assertThat(factory.build(source, "path").scalar).isEqualTo("stagingVal");
+
+        when(tagResolver.getTags()).thenReturn(Arrays.<String>asList());
+        whenOpenSource(YML);
+        assertThat(factory.build(source, "path").scalar).isEqualTo("testVal");
+        assertThat(directory.toFile().list()).hasSize(2);
+    }
+
+    @Test
+    public void testChangedSourceReplacesTheEntryOfTheSameTags() throws IOException, ConfigurationException {
+        when(tagResolver.getTags()).thenReturn(Arrays.asList("staging"));
+        whenOpenSource(YML);
+        factory.build(source, "path");
+        when(tagResolver.getTags()).thenReturn(Arrays.<String>asList());
+        whenOpenSource(YML);
+        factory.build(source, "path");
+
+        when(tagResolver.getTags()).thenReturn(Arrays.asList("staging"));
+        whenOpenSource(YML + "# changed\n");
+        assertThat(factory.build(source, "path").scalar).isEqualTo("stagingVal");
+        assertThat(directory.toFile().list()).hasSize(2);
+        String key = cache.key("path", (YML + "# changed\n").getBytes(StandardCharsets.UTF_8), Arrays.asList("staging"));
+        assertThat(directory.toFile().list()).contains(key + ".smile");
+    }
+
+    @Test
+    public void testEntriesWithoutTagsInTheirKeyAreRemoved() throws IOException, ConfigurationException {
+        String key = cache.key("path", YML.getBytes(StandardCharsets.UTF_8), Arrays.asList("staging"));
+        String untagged = key.substring(0, key.indexOf('-') + 1) + key.substring(key.lastIndexOf('-') + 1);
+        cache.write(untagged, mapper.readTree("{\"scalar\":\"cachedVal\"}"), mapper);
+        cache.write(key, mapper.readTree("{\"scalar\":\"stagingVal\"}"), mapper);
+        assertThat(directory.toFile().list()).containsOnly(key + ".smile");
+    }
+
+    @Test
+    public void testUnreadableEntryIsIgnored() throws IOException, ConfigurationException {
+        when(tagResolver.getTags()).thenReturn(Arrays.asList("staging"));
+        String key = cache.key("path", YML.getBytes(StandardCharsets.UTF_8), Arrays.asList("staging"));
+        Files.write(directory.resolve(key + ".smile"), new byte[]{'{', 0, 1, 2});
+        whenOpenSource(YML);
+        assertThat(factory.build(source, "path").scalar).isEqualTo("stagingVal");
+    }
+
+    public static class TestConfiguration {
+        @JsonProperty
+        public String scalar;
+    }
+
+    private void whenOpenSource(String str) throws IOException {
+        when(source.open(anyString())).thenReturn(new ByteArrayInputStream(str.getBytes(StandardCharsets.UTF_8)));
+    }
+
+}
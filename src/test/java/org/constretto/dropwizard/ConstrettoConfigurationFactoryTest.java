@@ -1,9 +1,12 @@
 package org.constretto.dropwizard;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
 import io.dropwizard.configuration.ConfigurationException;
 import io.dropwizard.configuration.ConfigurationFactory;
+import io.dropwizard.configuration.ConfigurationParsingException;
 import io.dropwizard.configuration.ConfigurationSourceProvider;
 import org.constretto.resolver.ConfigurationContextResolver;
 import org.junit.Before;
@@ -18,6 +21,11 @@ import java.util.Arrays;
 import java.util.List;
 
 import static org.fest.assertions.Assertions.assertThat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.when;
 
@@ -154,6 +162,33 @@ public class ConstrettoConfigurationFactoryTest {
         assertThat(config.list.get(1).ival).isEqualTo(3);
     }
 
+    @Test
+    public void testEmptyConfigurationFailsLikeDropwizard() throws IOException {
+        whenOpenSource("");
+        try {
+            factory.build(provider, "config.yml");
+            fail("Expected ConfigurationParsingException");
+        } catch (ConfigurationException e) {
+            assertThat(e).isInstanceOf(ConfigurationParsingException.class);
+            assertThat(e.getMessage()).contains("Configuration at config.yml must not be empty");
+        }
+    }
+
+    @Test
+    public void testTreeIsOnlyKeptOnRequest() throws IOException, ConfigurationException {
+        ConstrettoReloadableConfiguration<TestConfiguration> configuration = new ConstrettoReloadableConfiguration<>();
+        ((ConstrettoConfigurationFactory<TestConfiguration>) factory).withReloadable(configuration, false);
+        whenOpenSource("scalar: testVal\n");
+        TestConfiguration config = factory.build(provider, "config.yml");
+        assertThat(configuration.get()).isSameAs(config);
+        assertNull(configuration.getSnapshot().getTree());
+
+        ((ConstrettoConfigurationFactory<TestConfiguration>) factory).withReloadable(configuration);
+        whenOpenSource("scalar: testVal\n");
+        factory.build(provider, "config.yml");
+        assertThat(configuration.getSnapshot().getTree().get("scalar").asText()).isEqualTo("testVal");
+    }
+
     public static class TestConfiguration {
         @JsonProperty
         public String scalar;
@@ -179,6 +214,51 @@ public class ConstrettoConfigurationFactoryTest {
         public Integer ival;
     }
 
+    @Test
+    public void testTreeFilterSharesUntaggedSubtrees() throws IOException {
+        ConstrettoConfigurationFactory<TestConfiguration> treeFactory = (ConstrettoConfigurationFactory<TestConfiguration>) factory;
+        JsonNode source = parse(
+                "struct1:\n" +
+                "  val: untagged\n" +
+                "struct2:\n" +
+                "  val: untagged\n" +
+                "  .staging.val: staging\n" +
+                "list:\n" +
+                "  - val: plain\n" +
+                "  - .staging:\n" +
+                "    val: staging\n");
+        assertSame(source.get("struct1"), treeFactory.removeInactiveElements(source.get("struct1"), Arrays.asList("staging")));
+        JsonNode filtered = treeFactory.removeInactiveElements(source, Arrays.asList("staging"));
+        assertNotSame(source, filtered);
+        assertSame(source.get("struct1"), filtered.get("struct1"));
+        assertSame(source.get("list").get(0), filtered.get("list").get(0));
+        assertThat(filtered.toString()).isEqualTo(
+                "{\"struct1\":{\"val\":\"untagged\"},\"struct2\":{\"val\":\"staging\"}," +
+                "\"list\":[{\"val\":\"plain\"},{\"val\":\"staging\"}]}");
+    }
+
+    @Test
+    public void testTreeFilterLeavesSourceUnchanged() throws IOException {
+        ConstrettoConfigurationFactory<TestConfiguration> treeFactory = (ConstrettoConfigurationFactory<TestConfiguration>) factory;
+        String yml =
+                "scalar: testVal\n" +
+                "list:\n" +
+                "  - .staging:\n" +
+                "    val: staging\n" +
+                "  - .testing:\n" +
+                "    val: testing\n";
+        JsonNode source = parse(yml);
+        treeFactory.removeInactiveElements(source, Arrays.asList("staging"));
+        treeFactory.removeInactiveElements(source, Arrays.asList("testing"));
+        assertEquals(parse(yml), source);
+        assertThat(treeFactory.removeInactiveElements(source, Arrays.asList("testing")).get("list").toString())
+                .isEqualTo("[{\"val\":\"testing\"}]");
+    }
+
+    private JsonNode parse(String yml) throws IOException {
+        return new ObjectMapper().readTree(new YAMLFactory().createParser(yml));
+    }
+
     private void whenOpenSource(String str) throws IOException {
         when(source.open(anyString())).thenReturn(new ByteArrayInputStream(str.getBytes()));
     }
@@ -0,0 +1,98 @@
+package org.constretto.dropwizard;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/**
+ * @author kjeivers
+ */
+public class ConstrettoConfigurationIndexTest {
+
+    private static final String YML =
+            "untagged:\n" +
+            "  name: shared\n" +
+            "  list: [a, b]\n" +
+            "server:\n" +
+            "  port: 8080\n" +
+            "  .staging.port: 8081\n" +
+            "  .production.port: 80\n" +
+            "  connector:\n" +
+            "    timeout: 10\n" +
+            "list:\n" +
+            "- .staging:\n" +
+            "  val: str1\n" +
+            "- .production:\n" +
+            "  val: str2\n" +
+            "- .eu.val: str3_eu\n" +
+            "  val: str3\n" +
+            "- plain\n" +
+            "- nested:\n" +
+            "    val: str4\n";
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final ConstrettoConfigurationFactory<Object> factory =
+            new ConstrettoConfigurationFactory<>(Object.class, null, mapper, "dw", null);
+
+    @Test
+    public void testResolveMatchesTreeFilter() throws IOException {
+        ConstrettoConfigurationIndex index = ConstrettoConfigurationIndex.of(parse(YML));
+        List<List<String>> tagSets = Arrays.asList(
+                Collections.<String>emptyList(),
+                Arrays.asList("staging"),
+                Arrays.asList("production", "eu"),
+                Arrays.asList("staging", "production"),
+                Arrays.asList("unknown"));
+        for (List<String> tags : tagSets) {
+            assertEquals(factory.removeInactiveElements(parse(YML), tags), index.resolve(tags));
+        }
+    }
+
+    @Test
+    public void testUntaggedSubtreesAreShared() throws IOException {
+        JsonNode source = parse(YML);
+        ConstrettoConfigurationIndex index = ConstrettoConfigurationIndex.of(source);
+        JsonNode staging = index.resolve(Arrays.asList("staging"));
+        JsonNode production = index.resolve(Arrays.asList("production"));
+        assertSame(source.get("untagged"), staging.get("untagged"));
+        assertSame(source.get("untagged"), production.get("untagged"));
+        assertSame(source.get("server").get("connector"), staging.get("server").get("connector"));
+        assertNotSame(source.get("server"), staging.get("server"));
+        assertSame(source.get("list").get(4), staging.get("list").get(3));
+    }
+
+    @Test
+    public void testResolvingDoesNotModifyTheIndex() throws IOException {
+        JsonNode source = parse(YML);
+        ConstrettoConfigurationIndex index = ConstrettoConfigurationIndex.of(source);
+        index.resolve(Arrays.asList("staging"));
+        index.resolve(Arrays.asList("production"));
+        assertEquals(parse(YML), source);
+    }
+
+    @Test
+    public void testTagDependencies() throws IOException {
+        ConstrettoConfigurationIndex index = ConstrettoConfigurationIndex.of(parse(YML));
+        assertThat(index.getTags()).containsOnly("staging", "production", "eu");
+        assertThat(index.getTags("/server")).containsOnly("staging", "production");
+        assertThat(index.getTags("/list")).containsOnly("staging", "production", "eu");
+        assertThat(index.getTags("/untagged")).isEmpty();
+        assertThat(index.getTags("/missing")).isEmpty();
+    }
+
+    private JsonNode parse(String yml) throws IOException {
+        return mapper.readTree(new YAMLFactory().createParser(yml));
+    }
+
+}
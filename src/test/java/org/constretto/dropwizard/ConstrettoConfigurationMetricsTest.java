@@ -0,0 +1,117 @@
+package org.constretto.dropwizard;
+
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.dropwizard.configuration.ConfigurationException;
+import io.dropwizard.configuration.ConfigurationSourceProvider;
+import org.constretto.dropwizard.ConstrettoConfigurationFactoryTest.TestConfiguration;
+import org.constretto.dropwizard.ConstrettoConfigurationMetrics.Phase;
+import org.constretto.resolver.ConfigurationContextResolver;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import javax.validation.Validation;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author kjeivers
+ */
+public class ConstrettoConfigurationMetricsTest {
+
+    private static final String YML =
+            "scalar: testVal\n" +
+            "@staging.scalar: stagingVal\n" +
+            ".production.scalar: productionVal\n" +
+            "list:\n" +
+            "- .staging:\n" +
+            "  val: str1\n" +
+            "- .testing:\n" +
+            "  val: str2\n";
+
+    ConstrettoConfigurationProvider provider;
+    ConstrettoConfigurationMetrics metrics;
+    @Mock
+    ConfigurationContextResolver tagResolver;
+    @Mock
+    ConfigurationSourceProvider source;
+
+    @Before
+    public void setup() throws IOException {
+        MockitoAnnotations.initMocks(this);
+        provider = new ConstrettoConfigurationProvider(source);
+        metrics = new ConstrettoConfigurationMetrics();
+        when(tagResolver.getTags()).thenReturn(Arrays.asList("staging"));
+        when(source.open(anyString())).thenReturn(new ByteArrayInputStream(YML.getBytes()));
+    }
+
+    @Test
+    public void testTreeModeRecordsEveryPhase() throws IOException, ConfigurationException {
+        factory(ConstrettoConfigurationFactory.FilterMode.TREE).build(provider, "path");
+        ConstrettoConfigurationMetrics.Recording last = metrics.getLast();
+        for (Phase phase : Phase.values()) {
+            assertThat(last.isRecorded(phase)).isTrue();
+            assertThat(metrics.getTimer(phase).getCount()).isEqualTo(1);
+        }
+        assertThat(last.getSourceBytes()).isEqualTo(YML.length());
+        assertThat(last.getKeptTags()).isEqualTo(2);
+        assertThat(last.getDroppedTags()).isEqualTo(2);
+        // {scalar, list: [{val}]}
+        assertThat(last.getNodes()).isEqualTo(5);
+    }
+
+    @Test
+    public void testStreamingModeFiltersWhileParsing() throws IOException, ConfigurationException {
+        factory(ConstrettoConfigurationFactory.FilterMode.STREAMING).build(provider, "path");
+        ConstrettoConfigurationMetrics.Recording last = metrics.getLast();
+        assertThat(last.isRecorded(Phase.PARSE)).isTrue();
+        assertThat(last.isRecorded(Phase.FILTER)).isFalse();
+        assertThat(last.isRecorded(Phase.READ)).isTrue();
+        assertThat(last.isRecorded(Phase.VALIDATE)).isTrue();
+        assertThat(last.getKeptTags()).isEqualTo(2);
+        assertThat(last.getDroppedTags()).isEqualTo(2);
+    }
+
+    @Test
+    public void testFailedBuildIsNotPublished() throws IOException {
+        when(source.open(anyString())).thenReturn(new ByteArrayInputStream("unknown: value".getBytes()));
+        try {
+            factory(ConstrettoConfigurationFactory.FilterMode.STREAMING).build(provider, "path");
+        } catch (ConfigurationException e) {
+            // expected
+        }
+        assertThat(metrics.getLast().getSourceBytes()).isEqualTo(0);
+        assertThat(metrics.getTimer(Phase.PARSE).getCount()).isEqualTo(0);
+        assertThat(ConstrettoConfigurationMetrics.current()).isNull();
+    }
+
+    @Test
+    public void testMetricsAreRegistered() throws IOException, ConfigurationException {
+        factory(ConstrettoConfigurationFactory.FilterMode.TREE).build(provider, "path");
+        MetricRegistry registry = new MetricRegistry();
+        metrics.register(registry);
+        assertThat(registry.getTimers().get("constretto.configuration.parse").getCount()).isEqualTo(1);
+        assertThat(registry.getGauges().get("constretto.configuration.tagged-keys.kept").getValue()).isEqualTo(2L);
+        assertThat(registry.getGauges().get("constretto.configuration.source-bytes").getValue()).isEqualTo((long) YML.length());
+        assertThat(registry.getGauges().containsKey("constretto.configuration.bind.allocated-bytes")).isTrue();
+    }
+
+    private ConstrettoConfigurationFactory<TestConfiguration> factory(ConstrettoConfigurationFactory.FilterMode filterMode) {
+        return new ConstrettoConfigurationFactory<>(
+                TestConfiguration.class,
+                Validation.buildDefaultValidatorFactory().getValidator(),
+                new ObjectMapper(),
+                "",
+                tagResolver)
+                .withFilterMode(filterMode)
+                .withMetrics(metrics);
+    }
+
+}
@@ -0,0 +1,137 @@
+package org.constretto.dropwizard;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.dropwizard.configuration.ConfigurationException;
+import io.dropwizard.configuration.ConfigurationParsingException;
+import io.dropwizard.configuration.ConfigurationSourceProvider;
+import org.constretto.resolver.ConfigurationContextResolver;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * @author kjeivers
+ */
+public class ConstrettoConfigurationPreloadTest {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final Map<String, String> files = new HashMap<>();
+    private final AtomicInteger opened = new AtomicInteger();
+    private final ConfigurationSourceProvider provider = new ConstrettoConfigurationProvider(new ConfigurationSourceProvider() {
+        @Override
+        public InputStream open(String path) throws IOException {
+            opened.incrementAndGet();
+            if (!files.containsKey(path)) {
+                throw new IOException("No such file " + path);
+            }
+            return new ByteArrayInputStream(files.get(path).getBytes());
+        }
+    });
+    private final ConfigurationContextResolver tagResolver = new ConfigurationContextResolver() {
+        @Override
+        public List<String> getTags() {
+            return Arrays.asList("staging");
+        }
+    };
+
+    @Test
+    public void testBuildTakesThePreloadedTree() throws Exception {
+        files.put("config.yml", "scalar: testVal\n@staging.scalar: stagingVal\n");
+        ConstrettoConfigurationFactory<JsonNode> factory = factory().withPreload(preload("config.yml"));
+        assertThat(factory.build(provider, "config.yml").get("scalar").asText()).isEqualTo("stagingVal");
+        assertThat(opened.get()).isEqualTo(1);
+
+        // later builds read the source again
+        files.put("config.yml", "scalar: changed\n");
+        assertThat(factory.build(provider, "config.yml").get("scalar").asText()).isEqualTo("changed");
+        assertThat(opened.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void testPreloadErrorFailsTheBuildLikeABuildWithoutPreload() throws Exception {
+        files.put("config.yml", "scalar: [unterminated\n");
+        Exception expected = buildFailure(factory());
+        Exception preloaded = buildFailure(factory().withPreload(preload("config.yml")));
+        assertThat(preloaded.getClass()).isEqualTo(expected.getClass());
+        assertThat(preloaded.getMessage()).isEqualTo(expected.getMessage());
+        assertThat(opened.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void testEmptyPreloadFailsTheBuild() throws Exception {
+        files.put("config.yml", "");
+        try {
+            factory().withPreload(preload("config.yml")).build(provider, "config.yml");
+            fail("Expected ConfigurationException");
+        } catch (ConfigurationException e) {
+            assertThat(e).isInstanceOf(ConfigurationParsingException.class);
+            assertThat(e.getMessage()).contains("Configuration at config.yml must not be empty");
+        }
+    }
+
+    @Test
+    public void testMissingFileFailsTheBuild() throws Exception {
+        ConstrettoConfigurationFactory<JsonNode> factory = factory().withPreload(preload("missing.yml"));
+        try {
+            factory.build(provider, "missing.yml");
+            fail("Expected IOException");
+        } catch (IOException e) {
+            assertThat(e.getMessage()).contains("missing.yml");
+        }
+    }
+
+    @Test
+    public void testOtherPathIsBuiltFromItsSource() throws Exception {
+        files.put("config.yml", "scalar: preloaded\n");
+        files.put("other.yml", "scalar: other\n");
+        ConstrettoConfigurationFactory<JsonNode> factory = factory().withPreload(preload("config.yml"));
+        assertThat(factory.build(provider, "other.yml").get("scalar").asText()).isEqualTo("other");
+    }
+
+    @Test
+    public void testOverridesUseThePrefixOfTheBuildingFactory() throws Exception {
+        files.put("config.yml", "scalar: preloaded\nother: preloaded\n");
+        System.setProperty("app.scalar", "overridden");
+        System.setProperty("dw.other", "overridden");
+        try {
+            ConstrettoConfigurationFactory<JsonNode> factory = new ConstrettoConfigurationFactory<>(
+                    JsonNode.class, null, mapper, "app", tagResolver).withPreload(preload("config.yml"));
+            JsonNode node = factory.build(provider, "config.yml");
+            assertThat(node.get("scalar").asText()).isEqualTo("overridden");
+            assertThat(node.get("other").asText()).isEqualTo("preloaded");
+            assertThat(opened.get()).isEqualTo(1);
+        } finally {
+            System.clearProperty("app.scalar");
+            System.clearProperty("dw.other");
+        }
+    }
+
+    private Exception buildFailure(ConstrettoConfigurationFactory<JsonNode> factory) {
+        try {
+            factory.build(provider, "config.yml");
+        } catch (IOException | ConfigurationException e) {
+            return e;
+        }
+        throw new AssertionError("Expected the build to fail");
+    }
+
+    private ConstrettoConfigurationPreload preload(String path) {
+        return ConstrettoConfigurationPreload.start(new ConstrettoConfigurationReader(mapper), tagResolver, provider, path, null);
+    }
+
+    private ConstrettoConfigurationFactory<JsonNode> factory() {
+        return new ConstrettoConfigurationFactory<>(JsonNode.class, null, mapper, "dw", tagResolver);
+    }
+
+}
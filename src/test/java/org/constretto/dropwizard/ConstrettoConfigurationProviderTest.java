@@ -1,5 +1,7 @@
 package org.constretto.dropwizard;
 
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CharStreams;
 import io.dropwizard.configuration.ConfigurationException;
 import io.dropwizard.configuration.ConfigurationSourceProvider;
 import org.junit.Before;
@@ -7,11 +9,11 @@ import org.junit.Test;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
-import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
 
 import static org.fest.assertions.Assertions.assertThat;
 
@@ -107,17 +109,68 @@ public class ConstrettoConfigurationProviderTest {
                         "\n");
     }
 
-    private void assertConverted(String input, String expected) throws IOException {
-        InputStream is = provider.open(new StringReader(input));
-        BufferedReader br = new BufferedReader(new InputStreamReader(is));
-        String result = "";
-        while (br.ready()) {
-            String line = br.readLine();
-            result += line;
-            if (br.ready()) {
-                result += "\n";
+    @Test
+    public void testCarriageReturnLineEndings() throws IOException, ConfigurationException {
+        assertConverted(
+                "scalar: testVal\r\n" +
+                        "@staging.scalar: stagingVal\r\n" +
+                        "  - @testing:\r\n" +
+                        "    val: a@b\r\n",
+
+                "scalar: testVal\r\n" +
+                        ".staging.scalar: stagingVal\r\n" +
+                        "  - .testing:\r\n" +
+                        "    val: a@b\r\n"
+        );
+    }
+
+    @Test
+    public void testOnlyLeadingAtSignIsConverted() throws IOException, ConfigurationException {
+        assertConverted(
+                "url: jdbc:oracle:thin:@//host:1521/name\n" +
+                        "-- @notatag\n" +
+                        "x@staging.val: 1\n" +
+                        "\t@testing.val: 2 @ 3\n",
+
+                "url: jdbc:oracle:thin:@//host:1521/name\n" +
+                        "-- @notatag\n" +
+                        "x@staging.val: 1\n" +
+                        "\t.testing.val: 2 @ 3\n"
+        );
+    }
+
+    @Test
+    public void testSlowStreamIsReadCompletely() throws IOException {
+        final byte[] content = "first: 1\n@staging.second: 2\nthird: 3\n".getBytes(StandardCharsets.UTF_8);
+        InputStream slow = new ByteArrayInputStream(content) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, 1));
+            }
+
+            @Override
+            public synchronized int available() {
+                return 0;
             }
-        }
+        };
+        assertThat(CharStreams.toString(new InputStreamReader(provider.open(slow), StandardCharsets.UTF_8)))
+                .isEqualTo("first: 1\n.staging.second: 2\nthird: 3\n");
+    }
+
+    @Test
+    public void testSourceWithoutAtSignIsPassedThroughUnchanged() throws IOException {
+        byte[] content = ("# æøå: ünïcødé\n" +
+                "scalar: testVal\n" +
+                ".staging.scalar: stagingVal\n" +
+                "list:\n" +
+                "  - .testing:\n" +
+                "    val: str1\n").getBytes(StandardCharsets.UTF_8);
+        assertThat(ByteStreams.toByteArray(provider.open(new ByteArrayInputStream(content)))).isEqualTo(content);
+    }
+
+    private void assertConverted(String input, String expected) throws IOException {
+        InputStream is = provider.open(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)));
+        String result = CharStreams.toString(new InputStreamReader(is, StandardCharsets.UTF_8));
         assertThat(result.trim()).isEqualTo(expected.trim());
     }
 
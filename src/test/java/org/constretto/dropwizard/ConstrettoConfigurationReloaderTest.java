@@ -0,0 +1,105 @@
+package org.constretto.dropwizard;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.dropwizard.configuration.ConfigurationException;
+import io.dropwizard.configuration.FileConfigurationSourceProvider;
+import org.constretto.resolver.ConfigurationContextResolver;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import javax.validation.Validation;
+import javax.validation.constraints.NotNull;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author kjeivers
+ */
+public class ConstrettoConfigurationReloaderTest {
+
+    Path file;
+    ConstrettoReloadableConfiguration<TestConfiguration> configuration;
+    ConstrettoConfigurationFactory<TestConfiguration> factory;
+    ConstrettoConfigurationReloader reloader;
+    @Mock
+    ConfigurationContextResolver tagResolver;
+
+    @Before
+    public void setup() throws IOException, ConfigurationException {
+        MockitoAnnotations.initMocks(this);
+        when(tagResolver.getTags()).thenReturn(Arrays.asList("staging"));
+        file = Files.createTempFile("constretto-reload", ".yml");
+        write("scalar: testVal\n.staging.scalar: stagingVal\n");
+        configuration = new ConstrettoReloadableConfiguration<>();
+        factory = new ConstrettoConfigurationFactory<>(
+                TestConfiguration.class,
+                Validation.buildDefaultValidatorFactory().getValidator(),
+                new ObjectMapper(),
+                "",
+                tagResolver).withReloadable(configuration);
+        factory.build(new ConstrettoConfigurationProvider(new FileConfigurationSourceProvider()), file.toString());
+        reloader = new ConstrettoConfigurationReloader(factory, configuration, file, 50);
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        reloader.stop();
+        Files.delete(file);
+    }
+
+    @Test
+    public void testInitialConfigurationIsPublished() {
+        assertThat(configuration.getSnapshot().getVersion()).isEqualTo(1);
+        assertThat(configuration.get().scalar).isEqualTo("stagingVal");
+    }
+
+    @Test
+    public void testChangedConfigurationIsPublished() throws IOException {
+        write("scalar: testVal\n@staging.scalar: changedVal\n");
+        reloader.reload();
+        assertThat(configuration.getSnapshot().getVersion()).isEqualTo(2);
+        assertThat(configuration.get().scalar).isEqualTo("changedVal");
+    }
+
+    @Test
+    public void testInvalidConfigurationIsRejected() throws IOException {
+        ConstrettoConfigurationSnapshot<TestConfiguration> previous = configuration.getSnapshot();
+        write(".testing.scalar: testingVal\n");
+        reloader.reload();
+        write("scalar: [unterminated\n");
+        reloader.reload();
+        assertThat(configuration.getSnapshot()).isSameAs(previous);
+    }
+
+    @Test
+    public void testFileChangeIsPickedUp() throws Exception {
+        reloader.start();
+        write("scalar: testVal\n.staging.scalar: watchedVal\n");
+        long deadline = System.currentTimeMillis() + 20000;
+        while (!"watchedVal".equals(configuration.get().scalar) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertThat(configuration.get().scalar).isEqualTo("watchedVal");
+    }
+
+    public static class TestConfiguration {
+        @NotNull
+        @JsonProperty
+        public String scalar;
+    }
+
+    private void write(String content) throws IOException {
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+}
@@ -0,0 +1,208 @@
+package org.constretto.dropwizard;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import io.dropwizard.configuration.ConfigurationSourceProvider;
+import org.constretto.resolver.ConfigurationContextResolver;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * @author kjeivers
+ */
+public class ConstrettoFlatConfigurationTest {
+
+    private static final String YML =
+            "server:\n" +
+            "  port: 8080\n" +
+            "  .production.port: 80\n" +
+            "  ratio: 0.75\n" +
+            "  enabled: true\n" +
+            "  name: web\n" +
+            "  big: 12345678901\n" +
+            "  nothing: null\n" +
+            "hosts:\n" +
+            "- name: a\n" +
+            "- .production:\n" +
+            "  name: b\n";
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @Test
+    public void testTypedGetters() throws IOException {
+        ConstrettoFlatConfiguration flat = flat(YML, "production");
+        assertThat(flat.getInt("server.port")).isEqualTo(80);
+        assertThat(flat.getLong("server.port")).isEqualTo(80L);
+        assertThat(flat.getDouble("server.port")).isEqualTo(80.0);
+        assertThat(flat.getDouble("server.ratio")).isEqualTo(0.75);
+        assertThat(flat.getBoolean("server.enabled")).isTrue();
+        assertThat(flat.getString("server.name")).isEqualTo("web");
+        assertThat(flat.getString("server.port")).isEqualTo("80");
+        assertThat(flat.getLong("server.big")).isEqualTo(12345678901L);
+        assertThat(flat.getString("server.nothing")).isNull();
+        assertThat(flat.getString("hosts[0].name")).isEqualTo("a");
+        assertThat(flat.getString("hosts[1].name")).isEqualTo("b");
+        assertThat(flat.keys()).isEqualTo(Arrays.asList("server.port", "server.ratio", "server.enabled", "server.name",
+                "server.big", "server.nothing", "hosts[0].name", "hosts[1].name"));
+    }
+
+    @Test
+    public void testMissingKeys() throws IOException {
+        ConstrettoFlatConfiguration flat = flat(YML);
+        assertThat(flat.contains("server.port")).isTrue();
+        assertThat(flat.contains("server.nothing")).isTrue();
+        assertThat(flat.contains("server")).isFalse();
+        assertThat(flat.contains("hosts[1].name")).isFalse();
+        assertThat(flat.getInt("server.timeout", 30)).isEqualTo(30);
+        assertThat(flat.getString("server.host", "localhost")).isEqualTo("localhost");
+        assertThat(flat.getBoolean("server.debug", false)).isFalse();
+        try {
+            flat.getLong("server.timeout");
+            fail("Expected NoSuchElementException");
+        } catch (NoSuchElementException e) {
+            assertThat(e.getMessage()).contains("server.timeout");
+        }
+    }
+
+    @Test
+    public void testWrongTypeFails() throws IOException {
+        ConstrettoFlatConfiguration flat = flat(YML);
+        try {
+            flat.getLong("server.name");
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage()).contains("server.name");
+        }
+        try {
+            flat.getInt("server.big");
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage()).contains("out of range");
+        }
+        try {
+            flat.getBoolean("server.port");
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage()).contains("not a boolean");
+        }
+    }
+
+    @Test
+    public void testManyKeys() throws IOException {
+        StringBuilder yml = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            yml.append("key").append(i).append(": ").append(i).append('\n');
+        }
+        ConstrettoFlatConfiguration flat = flat(yml.toString());
+        assertThat(flat.size()).isEqualTo(1000);
+        for (int i = 0; i < 1000; i++) {
+            assertThat(flat.getInt("key" + i)).isEqualTo(i);
+        }
+    }
+
+    @Test
+    public void testTextIsParsed() throws IOException {
+        ConstrettoFlatConfiguration flat = flat("port: '8080'\nratio: '-1.5e2'\nenabled: 'TRUE'\nhuge: '99999999999999999999'\n"
+                + "version: '1.2.3'\nhex: '0x10'\n");
+        assertThat(flat.getInt("port")).isEqualTo(8080);
+        assertThat(flat.getString("port")).isEqualTo("8080");
+        assertThat(flat.getDouble("ratio")).isEqualTo(-150.0);
+        assertThat(flat.getBoolean("enabled")).isTrue();
+        assertThat(flat.getString("enabled")).isEqualTo("TRUE");
+        assertThat(flat.getDouble("huge")).isEqualTo(1e20);
+        assertThat(flat.getString("version")).isEqualTo("1.2.3");
+        try {
+            flat.getDouble("hex");
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage()).contains("not a number: 0x10");
+        }
+    }
+
+    @Test
+    public void testOverridesAreTyped() throws Exception {
+        ConstrettoReloadableConfiguration<JsonNode> configuration = new ConstrettoReloadableConfiguration<>();
+        ConstrettoConfigurationFactory<JsonNode> factory = new ConstrettoConfigurationFactory<>(
+                JsonNode.class, null, mapper, "dw", new ConfigurationContextResolver() {
+                    @Override
+                    public List<String> getTags() {
+                        return Collections.emptyList();
+                    }
+                }).withReloadable(configuration);
+        System.setProperty("dw.http.timeout", "60");
+        System.setProperty("dw.http.gzip", "false");
+        try {
+            factory.build(new ConfigurationSourceProvider() {
+                @Override
+                public InputStream open(String path) {
+                    return new ByteArrayInputStream("http:\n  timeout: 10\n  gzip: true\n".getBytes(StandardCharsets.UTF_8));
+                }
+            }, "config.yml");
+        } finally {
+            System.clearProperty("dw.http.timeout");
+            System.clearProperty("dw.http.gzip");
+        }
+        ConstrettoFlatConfiguration flat = configuration.getSnapshot().getFlat();
+        assertThat(flat.getInt("http.timeout", 30)).isEqualTo(60);
+        assertThat(flat.getBoolean("http.gzip")).isFalse();
+    }
+
+    @Test
+    public void testGettersDoNotAllocate() throws IOException {
+        ConstrettoFlatConfiguration flat = flat(YML);
+        String[] keys = {"server.port", "server.ratio", "server.enabled", "server.name"};
+        long sum = 0;
+        // warm up until the getters are compiled, so that class loading and interpretation are not counted
+        for (int i = 0; i < 50000; i++) {
+            sum += read(flat, keys);
+        }
+        long before = ConstrettoConfigurationMetrics.allocatedBytes();
+        for (int i = 0; i < 100000; i++) {
+            sum += read(flat, keys);
+        }
+        long allocated = ConstrettoConfigurationMetrics.allocatedBytes() - before;
+        assertThat(sum).isGreaterThan(0);
+        // boxing would allocate at least 16 bytes per read; the margin absorbs the noise of the JVM itself
+        assertThat(allocated).isLessThan(64 * 1024);
+    }
+
+    @Test
+    public void testSnapshotView() throws IOException {
+        JsonNode tree = tree(YML);
+        ConstrettoConfigurationSnapshot<JsonNode> snapshot = new ConstrettoConfigurationSnapshot<>(1, 0, tree, tree);
+        assertThat(snapshot.getFlat().getInt("server.port")).isEqualTo(8080);
+        assertThat(snapshot.getFlat()).isSameAs(snapshot.getFlat());
+    }
+
+    @Test
+    public void testConfigurationStore() throws IOException {
+        assertThat(flat(YML).asConfigurationStore().parseConfiguration()).hasSize(1);
+    }
+
+    private static long read(ConstrettoFlatConfiguration flat, String[] keys) {
+        long sum = flat.getLong(keys[0]) + (long) flat.getDouble(keys[1]) + (flat.getBoolean(keys[2]) ? 1 : 0);
+        return sum + flat.getString(keys[3]).length();
+    }
+
+    private ConstrettoFlatConfiguration flat(String yml, String... tags) throws IOException {
+        return ConstrettoFlatConfiguration.of(new ConstrettoConfigurationFactory<>(JsonNode.class, null, mapper, "", null)
+                .removeInactiveElements(tree(yml), Arrays.asList(tags)));
+    }
+
+    private JsonNode tree(String yml) throws IOException {
+        return mapper.readTree(new YAMLFactory().createParser(yml));
+    }
+
+}
@@ -0,0 +1,244 @@
+package org.constretto.dropwizard;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.io.ByteStreams;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import io.dropwizard.configuration.ConfigurationSourceProvider;
+import org.constretto.resolver.ConfigurationContextResolver;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.validation.Validation;
+import javax.validation.constraints.NotNull;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * @author kjeivers
+ */
+public class ConstrettoHttpSourceProviderTest {
+
+    HttpServer server;
+    boolean stopped;
+    String url;
+    Path directory;
+    ConstrettoHttpSourceProvider provider;
+
+    volatile String body = "scalar: defaultVal\n@production.scalar: productionVal\n";
+    volatile String etag = "\"v1\"";
+    volatile String lastModified;
+    volatile int status = 200;
+    volatile long delayMillis;
+    final AtomicInteger requests = new AtomicInteger();
+    final AtomicInteger notModified = new AtomicInteger();
+
+    @Before
+    public void setup() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/config.yml", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                requests.incrementAndGet();
+                try {
+                    Thread.sleep(delayMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+                String ifModifiedSince = exchange.getRequestHeaders().getFirst("If-Modified-Since");
+                if (status != 200) {
+                    exchange.sendResponseHeaders(status, -1);
+                } else if ((etag != null && etag.equals(ifNoneMatch))
+                        || (etag == null && lastModified != null && lastModified.equals(ifModifiedSince))) {
+                    notModified.incrementAndGet();
+                    exchange.sendResponseHeaders(304, -1);
+                } else {
+                    if (etag != null) {
+                        exchange.getResponseHeaders().set("ETag", etag);
+                    }
+                    if (lastModified != null) {
+                        exchange.getResponseHeaders().set("Last-Modified", lastModified);
+                    }
+                    byte[] content = body.getBytes(StandardCharsets.UTF_8);
+                    exchange.sendResponseHeaders(200, content.length);
+                    try (OutputStream output = exchange.getResponseBody()) {
+                        output.write(content);
+                    }
+                }
+                exchange.close();
+            }
+        });
+        server.start();
+        url = "http://127.0.0.1:" + server.getAddress().getPort() + "/config.yml";
+        directory = Files.createTempDirectory("constretto-http");
+        provider = new ConstrettoHttpSourceProvider(new ConfigurationSourceProvider() {
+            @Override
+            public InputStream open(String path) throws IOException {
+                return new ByteArrayInputStream(("local: " + path).getBytes(StandardCharsets.UTF_8));
+            }
+        }, directory).withTimeouts(1, 1, TimeUnit.SECONDS);
+    }
+
+    @After
+    public void cleanup() throws IOException {
+        stop();
+        for (File file : directory.toFile().listFiles()) {
+            Files.delete(file.toPath());
+        }
+        Files.delete(directory);
+    }
+
+    @Test
+    public void testRevalidatesWithETag() throws IOException {
+        assertThat(read(url)).isEqualTo(body);
+        assertThat(read(url)).isEqualTo(body);
+        assertThat(requests.get()).isEqualTo(2);
+        assertThat(notModified.get()).isEqualTo(1);
+
+        body = "scalar: changedVal\n";
+        etag = "\"v2\"";
+        assertThat(read(url)).isEqualTo("scalar: changedVal\n");
+        assertThat(notModified.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void testRevalidatesWithLastModified() throws IOException {
+        etag = null;
+        lastModified = "Wed, 21 Oct 2026 07:28:00 GMT";
+        read(url);
+        assertThat(read(url)).isEqualTo(body);
+        assertThat(notModified.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void testFallsBackToSnapshot() throws IOException {
+        String expected = read(url);
+        status = 503;
+        assertThat(read(url)).isEqualTo(expected);
+        status = 200;
+        delayMillis = 3000;
+        assertThat(read(url)).isEqualTo(expected);
+        delayMillis = 0;
+        stop();
+        assertThat(read(url)).isEqualTo(expected);
+    }
+
+    @Test
+    public void testFailsWithoutSnapshot() throws IOException {
+        status = 503;
+        try {
+            read(url);
+            fail("Expected IOException");
+        } catch (IOException e) {
+            assertThat(e.getMessage()).contains("503");
+        }
+        status = 200;
+        read(url);
+        status = 404;
+        try {
+            read(url);
+            fail("Expected FileNotFoundException");
+        } catch (FileNotFoundException e) {
+            assertThat(e.getMessage()).isEqualTo(url);
+        }
+    }
+
+    @Test
+    public void testCorruptSnapshotIsNotUsed() throws IOException {
+        read(url);
+        try (DirectoryStream<Path> bodies = Files.newDirectoryStream(directory, "*.body")) {
+            for (Path snapshot : bodies) {
+                Files.write(snapshot, "scalar: tamperedVal\n".getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        // the conditional headers of an unverified snapshot are not sent
+        assertThat(read(url)).isEqualTo(body);
+        assertThat(notModified.get()).isEqualTo(0);
+
+        try (DirectoryStream<Path> bodies = Files.newDirectoryStream(directory, "*.body")) {
+            for (Path snapshot : bodies) {
+                Files.write(snapshot, "scalar: tamperedVal\n".getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        stop();
+        try {
+            read(url);
+            fail("Expected IOException");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testOtherPathsAreDelegated() throws IOException {
+        assertThat(read("config.yml")).isEqualTo("local: config.yml");
+        assertThat(requests.get()).isEqualTo(0);
+    }
+
+    @Test
+    public void testUnchangedConfigurationIsReadFromCache() throws Exception {
+        ConstrettoConfigurationMetrics metrics = new ConstrettoConfigurationMetrics();
+        ConstrettoConfigurationFactory<TestConfiguration> factory = new ConstrettoConfigurationFactory<>(
+                TestConfiguration.class,
+                Validation.buildDefaultValidatorFactory().getValidator(),
+                new ObjectMapper(),
+                "",
+                new ConfigurationContextResolver() {
+                    @Override
+                    public List<String> getTags() {
+                        return Arrays.asList("production");
+                    }
+                }).withCache(new ConstrettoConfigurationCache(directory.resolve("cache"))).withMetrics(metrics);
+        ConstrettoConfigurationProvider source = new ConstrettoConfigurationProvider(provider);
+        assertThat(factory.build(source, url).scalar).isEqualTo("productionVal");
+        assertThat(metrics.getLast().getKeptTags()).isEqualTo(1);
+        assertThat(factory.build(source, url).scalar).isEqualTo("productionVal");
+        assertThat(notModified.get()).isEqualTo(1);
+        // not filtered again
+        assertThat(metrics.getLast().getKeptTags()).isEqualTo(0);
+        for (File file : directory.resolve("cache").toFile().listFiles()) {
+            Files.delete(file.toPath());
+        }
+        Files.delete(directory.resolve("cache"));
+    }
+
+    public static class TestConfiguration {
+        @NotNull
+        @JsonProperty
+        public String scalar;
+    }
+
+    private String read(String path) throws IOException {
+        try (InputStream input = provider.open(path)) {
+            return new String(ByteStreams.toByteArray(input), StandardCharsets.UTF_8);
+        }
+    }
+
+    private void stop() {
+        if (!stopped) {
+            stopped = true;
+            server.stop(0);
+        }
+    }
+
+}
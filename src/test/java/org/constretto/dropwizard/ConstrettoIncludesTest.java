@@ -0,0 +1,237 @@
+package org.constretto.dropwizard;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.TreeNode;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.dropwizard.configuration.ConfigurationException;
+import io.dropwizard.configuration.ConfigurationSourceProvider;
+import org.constretto.resolver.ConfigurationContextResolver;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.fail;
+
+/**
+ * @author kjeivers
+ */
+public class ConstrettoIncludesTest {
+
+    final Map<String, String> files = new ConcurrentHashMap<>();
+    final Map<String, AtomicInteger> opened = new ConcurrentHashMap<>();
+    final AtomicInteger parsed = new AtomicInteger();
+    final Set<Thread> readers = Collections.newSetFromMap(new ConcurrentHashMap<Thread, Boolean>());
+    volatile List<String> tags = Arrays.asList("production");
+    ConstrettoReloadableConfiguration<JsonNode> configuration;
+    ConstrettoConfigurationFactory<JsonNode> factory;
+    ConfigurationSourceProvider provider;
+
+    @Before
+    public void setup() {
+        files.put("shared/logging.yml",
+                "logging:\n" +
+                "  level: INFO\n" +
+                "  @production.level: WARN\n" +
+                "  appenders: [console]\n");
+        files.put("shared/database.yml",
+                "database:\n" +
+                "  user: app\n" +
+                "  pool: {min: 1, max: 10}\n");
+        files.put("config/service.yml",
+                "$include: [../shared/logging.yml, ../shared/database.yml]\n" +
+                "database:\n" +
+                "  url: jdbc:h2:mem\n" +
+                "  pool: {max: 50}\n");
+        configuration = new ConstrettoReloadableConfiguration<>();
+        factory = new ConstrettoConfigurationFactory<>(JsonNode.class, null, new ObjectMapper() {
+            @Override
+            public <T extends TreeNode> T readTree(JsonParser parser) throws IOException {
+                parsed.incrementAndGet();
+                return super.readTree(parser);
+            }
+        }, "", new ConfigurationContextResolver() {
+            @Override
+            public List<String> getTags() {
+                return tags;
+            }
+        }).withReloadable(configuration);
+        provider = new ConstrettoConfigurationProvider(new ConfigurationSourceProvider() {
+            @Override
+            public InputStream open(String path) throws IOException {
+                String content = files.get(path);
+                if (content == null) {
+                    throw new FileNotFoundException(path);
+                }
+                readers.add(Thread.currentThread());
+                opened.putIfAbsent(path, new AtomicInteger());
+                opened.get(path).incrementAndGet();
+                return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+            }
+        });
+    }
+
+    @Test
+    public void testFragmentsAreMergedAndFiltered() throws Exception {
+        JsonNode node = factory.build(provider, "config/service.yml");
+        assertThat(node.has(ConstrettoIncludes.DIRECTIVE)).isFalse();
+        assertThat(node.at("/logging/level").asText()).isEqualTo("WARN");
+        assertThat(node.at("/logging/appenders/0").asText()).isEqualTo("console");
+        assertThat(node.at("/database/user").asText()).isEqualTo("app");
+        assertThat(node.at("/database/url").asText()).isEqualTo("jdbc:h2:mem");
+        assertThat(node.at("/database/pool/min").asInt()).isEqualTo(1);
+        assertThat(node.at("/database/pool/max").asInt()).isEqualTo(50);
+    }
+
+    @Test
+    public void testBuildsShareTheReadingThreads() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            factory.build(provider, "config/service.yml");
+        }
+        readers.remove(Thread.currentThread());
+        assertThat(readers.size()).isGreaterThan(0).isLessThanOrEqualTo(8);
+        for (Thread reader : readers) {
+            assertThat(reader.getName()).isEqualTo("constretto-include");
+            assertThat(reader.isDaemon()).isTrue();
+        }
+    }
+
+    @Test
+    public void testTaggedAndNestedIncludes() throws Exception {
+        files.put("config/service.yml",
+                "@production.$include: production.yml\n" +
+                "@staging.$include: missing.yml\n" +
+                "servers:\n" +
+                "- $include: ../shared/database.yml\n" +
+                "  name: first\n");
+        files.put("config/production.yml", "$include: ../shared/logging.yml\nlogging: {file: app.log}\n");
+        JsonNode node = factory.build(provider, "config/service.yml");
+        assertThat(node.at("/logging/level").asText()).isEqualTo("WARN");
+        assertThat(node.at("/logging/file").asText()).isEqualTo("app.log");
+        assertThat(node.at("/servers/0/database/user").asText()).isEqualTo("app");
+        assertThat(node.at("/servers/0/name").asText()).isEqualTo("first");
+
+        tags = Arrays.asList("staging");
+        try {
+            factory.build(provider, "config/service.yml");
+            fail("Expected FileNotFoundException");
+        } catch (FileNotFoundException e) {
+            assertThat(e.getMessage()).isEqualTo("config/missing.yml");
+        }
+    }
+
+    @Test
+    public void testFragmentsAreParsedOnce() throws Exception {
+        files.put("config/service.yml",
+                "a: {$include: ../shared/database.yml}\n" +
+                "b: {$include: ../shared/database.yml}\n" +
+                "c: {$include: ../shared/database.yml}\n");
+        JsonNode node = factory.build(provider, "config/service.yml");
+        assertEquals(node.get("c"), node.get("a"));
+        assertNotSame(node.get("c"), node.get("a"));
+        assertThat(opened.get("shared/database.yml").get()).isEqualTo(1);
+        assertThat(parsed.get()).isEqualTo(2);
+
+        factory.reload();
+        assertThat(opened.get("shared/database.yml").get()).isEqualTo(2);
+        assertThat(parsed.get()).isEqualTo(3);
+
+        files.put("shared/database.yml", "database: {user: changed}\n");
+        node = factory.reload();
+        assertThat(node.at("/b/database/user").asText()).isEqualTo("changed");
+        assertThat(parsed.get()).isEqualTo(5);
+    }
+
+    @Test
+    public void testCyclesAreRejected() throws Exception {
+        files.put("shared/database.yml", "$include: logging.yml\n");
+        files.put("shared/logging.yml", "$include: [../config/service.yml]\n");
+        try {
+            factory.build(provider, "config/service.yml");
+            fail("Expected ConfigurationException");
+        } catch (ConfigurationException e) {
+            assertThat(e.getMessage()).contains("config/service.yml includes itself");
+        }
+    }
+
+    @Test
+    public void testInvalidDirectivesAreRejected() throws Exception {
+        files.put("config/service.yml", "$include: {path: logging.yml}\n");
+        try {
+            factory.build(provider, "config/service.yml");
+            fail("Expected ConfigurationException");
+        } catch (ConfigurationException e) {
+            assertThat(e.getMessage()).contains("must be a path or a list of paths");
+        }
+        files.put("config/service.yml", "$include: list.yml\n");
+        files.put("config/list.yml", "- a\n- b\n");
+        try {
+            factory.build(provider, "config/service.yml");
+            fail("Expected ConfigurationException");
+        } catch (ConfigurationException e) {
+            assertThat(e.getMessage()).contains("config/list.yml must be an object");
+        }
+    }
+
+    @Test
+    public void testSwitchedTagsAreAppliedToFragments() throws Exception {
+        factory.withTagSwitching(true).build(provider, "config/service.yml");
+        JsonNode node = factory.switchTags(Arrays.asList("staging"));
+        assertThat(node.at("/logging/level").asText()).isEqualTo("INFO");
+        assertThat(node.at("/database/pool/max").asInt()).isEqualTo(50);
+        assertEquals(node, configuration.getSnapshot().getTree());
+    }
+
+    @Test
+    public void testSwitchReadsOnlyWhatTheBuildRead() throws Exception {
+        files.put("config/service.yml",
+                "@production.$include: ../shared/logging.yml\n" +
+                "@staging.$include: ../shared/database.yml\n" +
+                "name: service\n");
+        // the source is kept, but only the fragments for the active tags are read
+        factory.withRendering(true).build(provider, "config/service.yml");
+        try {
+            factory.switchTags(Arrays.asList("staging"));
+            fail("Expected ConfigurationException");
+        } catch (ConfigurationException e) {
+            assertThat(e.getMessage()).contains("shared/database.yml was not read when the configuration was built");
+        }
+        assertThat(opened.containsKey("shared/database.yml")).isFalse();
+
+        factory.withTagSwitching(true).build(provider, "config/service.yml");
+        opened.clear();
+        // edits are only seen after a reload has validated them
+        files.put("shared/database.yml", "database: {user: edited}\n");
+        files.put("config/service.yml", "name: edited\n");
+        JsonNode node = factory.switchTags(Arrays.asList("staging"));
+        assertThat(node.at("/database/user").asText()).isEqualTo("app");
+        assertThat(node.at("/name").asText()).isEqualTo("service");
+        assertThat(opened).isEmpty();
+    }
+
+    @Test
+    public void testRelativePaths() {
+        assertThat(ConstrettoIncludes.resolve("config/service.yml", "db.yml")).isEqualTo("config/db.yml");
+        assertThat(ConstrettoIncludes.resolve("service.yml", "db.yml")).isEqualTo("db.yml");
+        assertThat(ConstrettoIncludes.resolve("config/service.yml", "../shared/./db.yml")).isEqualTo("shared/db.yml");
+        assertThat(ConstrettoIncludes.resolve("config/service.yml", "../../db.yml")).isEqualTo("../db.yml");
+        assertThat(ConstrettoIncludes.resolve("config/service.yml", "/etc/db.yml")).isEqualTo("/etc/db.yml");
+        assertThat(ConstrettoIncludes.resolve("config/service.yml", "classpath:db.yml")).isEqualTo("classpath:db.yml");
+    }
+
+}
@@ -0,0 +1,191 @@
+package org.constretto.dropwizard;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.dropwizard.configuration.FileConfigurationSourceProvider;
+import org.constretto.resolver.ConfigurationContextResolver;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.validation.Valid;
+import javax.validation.Validation;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * @author kjeivers
+ */
+public class ConstrettoLazyTest {
+
+    private static final String YML =
+            "name: service\n" +
+            "tenants:\n" +
+            "  acme: {limit: 10}\n" +
+            "  @production.acme: {limit: 100}\n" +
+            "  globex: {limit: 5}\n" +
+            "catalog:\n" +
+            "  features: [search, export]\n";
+
+    static final AtomicInteger catalogs = new AtomicInteger();
+
+    Path file;
+    ConstrettoConfigurationFactory<TestConfiguration> factory;
+    ObjectMapper mapper = new ObjectMapper();
+
+    @Before
+    public void setup() throws IOException {
+        file = Files.createTempFile("constretto-lazy", ".yml");
+        factory = new ConstrettoConfigurationFactory<>(
+                TestConfiguration.class,
+                Validation.buildDefaultValidatorFactory().getValidator(),
+                mapper,
+                "dw",
+                new ConfigurationContextResolver() {
+                    @Override
+                    public List<String> getTags() {
+                        return Arrays.asList("production");
+                    }
+                });
+        catalogs.set(0);
+    }
+
+    @After
+    public void cleanup() throws IOException {
+        System.clearProperty("dw.catalog.features");
+        Files.delete(file);
+    }
+
+    @Test
+    public void testSectionsAreBoundOnFirstAccess() throws Exception {
+        TestConfiguration configuration = build(YML);
+        assertThat(configuration.name).isEqualTo("service");
+        assertThat(configuration.tenants.isBound()).isFalse();
+        assertThat(configuration.catalog.isBound()).isFalse();
+        assertThat(catalogs.get()).isEqualTo(0);
+
+        assertThat(configuration.tenants.get().get("acme").limit).isEqualTo(100);
+        assertThat(configuration.tenants.get().get("globex").limit).isEqualTo(5);
+        assertThat(configuration.tenants.isBound()).isTrue();
+        assertThat(configuration.catalog.isBound()).isFalse();
+    }
+
+    @Test
+    public void testOverridesAreApplied() throws Exception {
+        System.setProperty("dw.catalog.features", "search,import");
+        TestConfiguration configuration = build(YML);
+        assertThat(configuration.catalog.get().features).isEqualTo(Arrays.asList("search", "import"));
+    }
+
+    @Test
+    public void testInvalidSectionFailsOnAccess() throws Exception {
+        TestConfiguration configuration = build(YML + "  @production.features: null\n");
+        try {
+            configuration.catalog.get();
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage()).contains(file.toString() + " (/catalog)").contains("features may not be null");
+            try {
+                configuration.catalog.get();
+                fail("Expected IllegalStateException");
+            } catch (IllegalStateException again) {
+                assertThat(again).isSameAs(e);
+            }
+        }
+        assertThat(catalogs.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void testSectionIsBoundOnce() throws Exception {
+        final TestConfiguration configuration = build(YML);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Catalog>> futures = new ArrayList<>();
+            for (int i = 0; i < 64; i++) {
+                futures.add(executor.submit(new Callable<Catalog>() {
+                    @Override
+                    public Catalog call() {
+                        return configuration.catalog.get();
+                    }
+                }));
+            }
+            for (Future<Catalog> future : futures) {
+                assertThat(future.get()).isSameAs(configuration.catalog.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertThat(catalogs.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void testSerializingDoesNotBind() throws Exception {
+        TestConfiguration configuration = build(YML);
+        assertThat(mapper.writeValueAsString(configuration.catalog)).isEqualTo("{\"features\":[\"search\",\"export\"]}");
+        assertThat(configuration.catalog.isBound()).isFalse();
+        assertThat(mapper.writeValueAsString(ConstrettoLazy.of(Arrays.asList(1, 2)))).isEqualTo("[1,2]");
+    }
+
+    @Test
+    public void testPlainMapper() throws Exception {
+        TestConfiguration configuration = mapper.readValue(
+                "{\"name\":\"plain\",\"catalog\":{\"features\":null},\"tenants\":{\"a\":{\"limit\":1}}}", TestConfiguration.class);
+        assertThat(configuration.tenants.get().get("a").limit).isEqualTo(1);
+        // not validated outside of the factory
+        assertThat(configuration.catalog.get().features).isNull();
+    }
+
+    private TestConfiguration build(String yml) throws Exception {
+        Files.write(file, yml.getBytes(StandardCharsets.UTF_8));
+        return factory.build(new ConstrettoConfigurationProvider(new FileConfigurationSourceProvider()), file.toString());
+    }
+
+    public static class TestConfiguration {
+        @NotNull
+        @JsonProperty
+        public String name;
+
+        @Valid
+        @NotNull
+        @JsonProperty
+        public ConstrettoLazy<Map<String, Tenant>> tenants;
+
+        @Valid
+        @NotNull
+        @JsonProperty
+        public ConstrettoLazy<Catalog> catalog;
+    }
+
+    public static class Tenant {
+        @Min(1)
+        @JsonProperty
+        public int limit;
+    }
+
+    public static class Catalog {
+        @NotNull
+        @JsonProperty
+        public List<String> features;
+
+        public Catalog() {
+            catalogs.incrementAndGet();
+        }
+    }
+
+}
@@ -0,0 +1,110 @@
+package org.constretto.dropwizard;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author kjeivers
+ */
+public class ConstrettoParallelTreeFilterTest {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final YAMLFactory yamlFactory = new YAMLFactory();
+    private final ForkJoinPool pool = new ForkJoinPool(4);
+    private final List<Collection<String>> tagSets = Arrays.<Collection<String>>asList(
+            Collections.<String>emptyList(), Arrays.asList("x"), Arrays.asList("y"), Arrays.asList("x", "y"));
+
+    @After
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Test
+    public void testSameResultAsSequentialFilter() throws IOException {
+        String yml =
+                "a: 1\n" +
+                ".x.a: 2\n" +
+                "b:\n" +
+                "  .y.c: [1, 2]\n" +
+                "  c: 3\n" +
+                "  list:\n" +
+                "    - .x:\n" +
+                "      nested:\n" +
+                "        - .y:\n" +
+                "          deep: 1\n" +
+                "        - .x.deep: 2\n" +
+                "          deep: 0\n" +
+                "    - .y:\n" +
+                "      val: y\n" +
+                "    - plain\n";
+        for (Collection<String> tags : tagSets) {
+            assertEquals(treeFilter(parse(yml), tags), parallelFilter(parse(yml), tags));
+        }
+    }
+
+    @Test
+    public void testWideTreeKeepsOrderAndOverrides() throws IOException {
+        StringBuilder yml = new StringBuilder();
+        Random random = new Random(7);
+        for (int tenant = 0; tenant < 500; tenant++) {
+            yml.append("tenant").append(tenant).append(":\n");
+            yml.append("  url: url").append(tenant).append('\n');
+            if (random.nextBoolean()) {
+                yml.append("  .x.url: x").append(tenant).append('\n');
+            }
+            yml.append("  hosts:\n");
+            for (int host = 0; host < 10; host++) {
+                if (random.nextInt(3) == 0) {
+                    yml.append("  - .y:\n    name: y").append(host).append('\n');
+                } else {
+                    yml.append("  - name: h").append(host).append('\n');
+                }
+            }
+            if (random.nextBoolean()) {
+                yml.append("  .y.url: y").append(tenant).append('\n');
+            }
+        }
+        JsonNode source = parse(yml.toString());
+        for (Collection<String> tags : tagSets) {
+            assertEquals(treeFilter(source, tags), parallelFilter(source, tags));
+        }
+        assertEquals(parse(yml.toString()), source);
+    }
+
+    @Test
+    public void testTaggedKeysAreCounted() throws IOException {
+        ConstrettoTags.Counts counts = new ConstrettoTags.Counts();
+        new ConstrettoParallelTreeFilter(ConstrettoTags.of(Arrays.asList("x")), 2, pool)
+                .filter(parse("a: 1\n.x.a: 2\n.y.a: 3\nlist:\n- .x:\n  v: 1\n- .y:\n  v: 2\n"), counts);
+        assertThat(counts.kept()).isEqualTo(2);
+        assertThat(counts.dropped()).isEqualTo(2);
+    }
+
+    private JsonNode parallelFilter(JsonNode node, Collection<String> tags) {
+        return new ConstrettoParallelTreeFilter(ConstrettoTags.of(tags), 2, pool).filter(node);
+    }
+
+    private JsonNode treeFilter(JsonNode node, Collection<String> tags) {
+        return new ConstrettoConfigurationFactory<>(JsonNode.class, null, mapper, "", null)
+                .removeInactiveElements(node, tags);
+    }
+
+    private JsonNode parse(String yml) throws IOException {
+        return mapper.readTree(yamlFactory.createParser(yml));
+    }
+
+}
@@ -0,0 +1,116 @@
+package org.constretto.dropwizard;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.dropwizard.configuration.ConfigurationException;
+import io.dropwizard.configuration.ConfigurationSourceProvider;
+import org.constretto.resolver.ConfigurationContextResolver;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * @author kjeivers
+ */
+public class ConstrettoPrerendererTest {
+
+    private static final String YML =
+            "scalar: testVal\n" +
+            "@staging.scalar: stagingVal\n" +
+            "list:\n" +
+            "- @staging:\n" +
+            "  val: str1\n" +
+            "- @testing:\n" +
+            "  val: str2\n" +
+            "- val: \"@staging.val\"\n";
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final ConstrettoPrerenderer prerenderer = new ConstrettoPrerenderer(mapper);
+
+    @Test
+    public void testRenderStartsWithMarker() throws IOException {
+        ObjectNode rendered = prerenderer.render(provider(YML.getBytes()), "config.yml", Arrays.asList("staging", "eu"));
+        assertThat(rendered.fieldNames().next()).isEqualTo(ConstrettoPrerenderer.MARKER);
+        assertThat(rendered.get(ConstrettoPrerenderer.MARKER).get(0).asText()).isEqualTo("eu");
+        assertThat(rendered.get(ConstrettoPrerenderer.MARKER).get(1).asText()).isEqualTo("staging");
+        assertThat(rendered.get("scalar").asText()).isEqualTo("stagingVal");
+    }
+
+    @Test
+    public void testPrerenderedSourceIsDetected() throws IOException {
+        for (ConstrettoSourceFormat format : ConstrettoSourceFormat.values()) {
+            byte[] rendered = render(format, "staging");
+            assertThat(format.isPrerendered(ConstrettoSourceFormat.pushback(new ByteArrayInputStream(rendered)))).isTrue();
+        }
+        assertThat(ConstrettoSourceFormat.YAML.isPrerendered(ConstrettoSourceFormat.pushback(new ByteArrayInputStream(YML.getBytes())))).isFalse();
+    }
+
+    @Test
+    public void testPrerenderedSourceIsNotRewritten() throws IOException {
+        byte[] rendered = render(ConstrettoSourceFormat.YAML, "staging");
+        InputStream input = new ConstrettoConfigurationProvider(provider(rendered)).open("config.yml");
+        assertThat(input instanceof ConstrettoAtSignInputStream).isFalse();
+    }
+
+    @Test
+    public void testPrerenderedSourceBuildsLikeTheSource() throws Exception {
+        JsonNode expected = build(ConstrettoConfigurationFactory.FilterMode.STREAMING, "config.yml", YML.getBytes(), "staging");
+        for (ConstrettoConfigurationFactory.FilterMode filterMode : ConstrettoConfigurationFactory.FilterMode.values()) {
+            assertEquals(expected, build(filterMode, "config.yml", render(ConstrettoSourceFormat.YAML, "staging"), "staging"));
+            assertEquals(expected, build(filterMode, "config.smile", render(ConstrettoSourceFormat.SMILE, "staging"), "staging"));
+            // detected from the content
+            assertEquals(expected, build(filterMode, "config", render(ConstrettoSourceFormat.SMILE, "staging"), "staging"));
+        }
+        assertThat(expected.has(ConstrettoPrerenderer.MARKER)).isFalse();
+        assertThat(expected.get("list").get(1).get("val").asText()).isEqualTo("@staging.val");
+    }
+
+    @Test
+    public void testPrerenderedForOtherTagsFails() throws Exception {
+        byte[] rendered = render(ConstrettoSourceFormat.YAML, "staging");
+        try {
+            build(ConstrettoConfigurationFactory.FilterMode.STREAMING, "config.yml", rendered, "testing");
+            fail("Expected ConfigurationException");
+        } catch (ConfigurationException e) {
+            assertThat(e.getMessage()).contains("[staging]");
+            assertThat(e.getMessage()).contains("[testing]");
+        }
+    }
+
+    private byte[] render(ConstrettoSourceFormat format, String... tags) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        prerenderer.write(prerenderer.render(provider(YML.getBytes()), "config.yml", Arrays.asList(tags)), output, format);
+        return output.toByteArray();
+    }
+
+    private JsonNode build(ConstrettoConfigurationFactory.FilterMode filterMode, String path, byte[] source,
+                           final String... tags) throws Exception {
+        return new ConstrettoConfigurationFactory<>(JsonNode.class, null, mapper, "dw",
+                new ConfigurationContextResolver() {
+                    @Override
+                    public List<String> getTags() {
+                        return Arrays.asList(tags);
+                    }
+                }).withFilterMode(filterMode).build(new ConstrettoConfigurationProvider(provider(source)), path);
+    }
+
+    private static ConfigurationSourceProvider provider(final byte[] source) {
+        return new ConfigurationSourceProvider() {
+            @Override
+            public InputStream open(String path) {
+                return new ByteArrayInputStream(source);
+            }
+        };
+    }
+
+}
@@ -0,0 +1,139 @@
+package org.constretto.dropwizard;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * @author kjeivers
+ */
+public class ConstrettoReloadableConfigurationTest {
+
+    ObjectMapper mapper = new ObjectMapper();
+    ConstrettoReloadableConfiguration<String> configuration;
+    List<String> notified;
+
+    @Before
+    public void setup() {
+        configuration = new ConstrettoReloadableConfiguration<>();
+        notified = new ArrayList<>();
+    }
+
+    @Test
+    public void testSnapshotsAreVersioned() throws IOException {
+        assertThat(configuration.get()).isNull();
+        configuration.publish("first", tree("{}"));
+        configuration.publish("second", tree("{}"));
+        assertThat(configuration.get()).isEqualTo("second");
+        assertThat(configuration.getSnapshot().getVersion()).isEqualTo(2);
+    }
+
+    @Test
+    public void testDiffReportsMostSpecificPaths() throws IOException {
+        ConstrettoConfigurationSnapshot<String> before = configuration.publish("before", tree(
+                "{\"database\":{\"url\":\"a\",\"user\":\"u\"},\"list\":[1,2],\"removed\":1,\"same\":{\"x\":[1,{\"y\":2}]}}"));
+        ConstrettoConfigurationSnapshot<String> after = configuration.publish("after", tree(
+                "{\"same\":{\"x\":[1,{\"y\":2}]},\"database\":{\"url\":\"b\",\"user\":\"u\"},\"list\":[1,3],\"a/b\":true}"));
+        assertThat(after.diff(before)).containsOnly("/database/url", "/list/1", "/removed", "/a~1b");
+        assertThat(after.diff(after)).isEmpty();
+    }
+
+    @Test
+    public void testListenerIsNotifiedOnlyWhenItsPathChanges() throws IOException {
+        listen("/database");
+        listen("/server/port");
+        listen("");
+        configuration.publish("1", tree("{\"database\":{\"url\":\"a\"},\"server\":{\"port\":8080}}"));
+        assertThat(notified).isEmpty();
+
+        configuration.publish("2", tree("{\"server\":{\"port\":8080},\"database\":{\"url\":\"a\"},\"other\":1}"));
+        assertThat(notified).containsOnly("");
+
+        notified.clear();
+        configuration.publish("3", tree("{\"server\":{\"port\":8081},\"database\":{\"url\":\"a\"},\"other\":1}"));
+        assertThat(notified).containsOnly("/server/port", "");
+
+        notified.clear();
+        configuration.publish("4", tree("{\"server\":{\"port\":8081},\"other\":1}"));
+        assertThat(notified).containsOnly("/database", "");
+    }
+
+    @Test
+    public void testValuesWithEqualStringHashCodesAreChanges() throws IOException {
+        listen("/value");
+        listen("/names");
+        ConstrettoConfigurationSnapshot<String> before = configuration.publish("1", tree("{\"value\":\"Aa\",\"names\":{\"Aa\":1}}"));
+        ConstrettoConfigurationSnapshot<String> after = configuration.publish("2", tree("{\"value\":\"BB\",\"names\":{\"BB\":1}}"));
+        assertThat(notified).containsOnly("/value", "/names");
+        assertThat(after.diff(before)).containsOnly("/value", "/names/Aa", "/names/BB");
+    }
+
+    @Test
+    public void testValuesWithEqualHashesAreComparedBeforeTheyAreUnchanged() throws IOException {
+        listen("/value");
+        // the same text, and so the same hash, but not the same node
+        ConstrettoConfigurationSnapshot<String> before = configuration.publish("1",
+                mapper.createObjectNode().put("value", 1).put("other", "x"));
+        ConstrettoConfigurationSnapshot<String> after = configuration.publish("2",
+                mapper.createObjectNode().put("value", 1L).put("other", "x"));
+        assertThat(notified).containsOnly("/value");
+        assertThat(after.hasChanged(before, "/value")).isTrue();
+        assertThat(after.hasChanged(before, "/other")).isFalse();
+        assertThat(after.diff(before)).containsOnly("/value");
+    }
+
+    @Test
+    public void testFailingListenerDoesNotStopOthers() throws IOException {
+        configuration.addListener("/a", new ConstrettoConfigurationListener<String>() {
+            @Override
+            public void onChange(ConstrettoConfigurationSnapshot<String> previous, ConstrettoConfigurationSnapshot<String> current) {
+                throw new IllegalStateException("failing listener");
+            }
+        });
+        listen("/a");
+        configuration.publish("1", tree("{\"a\":1}"));
+        configuration.publish("2", tree("{\"a\":2}"));
+        assertThat(notified).containsOnly("/a");
+        assertThat(configuration.get()).isEqualTo("2");
+    }
+
+    @Test
+    public void testSnapshotWithoutTree() throws IOException {
+        listen("/a");
+        ConstrettoConfigurationSnapshot<String> before = configuration.publish("1", null);
+        ConstrettoConfigurationSnapshot<String> after = configuration.publish("2", null);
+        assertThat(configuration.get()).isEqualTo("2");
+        assertNull(after.getTree());
+        assertThat(after.diff(before)).containsOnly("");
+        assertThat(notified).containsOnly("/a");
+        try {
+            after.getFlat();
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage()).contains("withConfigurationTree()");
+        }
+    }
+
+    private void listen(final String path) {
+        configuration.addListener(path, new ConstrettoConfigurationListener<String>() {
+            @Override
+            public void onChange(ConstrettoConfigurationSnapshot<String> previous, ConstrettoConfigurationSnapshot<String> current) {
+                notified.add(path);
+            }
+        });
+    }
+
+    private JsonNode tree(String json) throws IOException {
+        return mapper.readTree(json);
+    }
+
+}
@@ -0,0 +1,180 @@
+package org.constretto.dropwizard;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableMultimap;
+import io.dropwizard.configuration.ConfigurationException;
+import io.dropwizard.configuration.ConfigurationSourceProvider;
+import org.constretto.resolver.ConfigurationContextResolver;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * @author kjeivers
+ */
+public class ConstrettoRenderTaskTest {
+
+    private static final String YML =
+            "database:\n" +
+            "  url: jdbc:testing\n" +
+            "  .production.url: jdbc:production\n" +
+            "  password: testing-secret\n" +
+            "  .production.password: production-secret\n" +
+            "  .eu.region: eu-west\n" +
+            "apiKey: abc\n";
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private int opened;
+    private String yml = YML;
+    private ConstrettoConfigurationFactory<JsonNode> factory;
+    private ConstrettoRenderTask task;
+
+    @Before
+    public void setup() throws Exception {
+        factory = new ConstrettoConfigurationFactory<>(JsonNode.class, null, mapper, "dw",
+                new ConfigurationContextResolver() {
+                    @Override
+                    public List<String> getTags() {
+                        return Arrays.asList("production");
+                    }
+                }).withRendering(true);
+        factory.build(new ConstrettoConfigurationProvider(new ConfigurationSourceProvider() {
+            @Override
+            public InputStream open(String path) {
+                opened++;
+                return new ByteArrayInputStream(yml.getBytes());
+            }
+        }), "config.yml");
+        task = new ConstrettoRenderTask(factory, ConstrettoRenderTask.DEFAULT_SECRETS, 1024 * 1024, 10000);
+    }
+
+    @Test
+    public void testRendersRequestedTagsWithSecretsMasked() throws Exception {
+        JsonNode rendered = execute(ImmutableMultimap.of("tags", "production,eu"));
+        assertThat(rendered.get("database").get("url").asText()).isEqualTo("jdbc:production");
+        assertThat(rendered.get("database").get("region").asText()).isEqualTo("eu-west");
+        assertThat(rendered.get("database").get("password").asText()).isEqualTo(ConstrettoRenderTask.MASK);
+        assertThat(rendered.get("apiKey").asText()).isEqualTo(ConstrettoRenderTask.MASK);
+    }
+
+    @Test
+    public void testRepeatedTagsAreCombined() throws Exception {
+        JsonNode rendered = execute(ImmutableMultimap.of("tags", "eu", "tags", "production"));
+        assertThat(rendered.get("database").get("url").asText()).isEqualTo("jdbc:production");
+        assertThat(rendered.get("database").get("region").asText()).isEqualTo("eu-west");
+    }
+
+    @Test
+    public void testActiveTagsAreUsedByDefault() throws Exception {
+        JsonNode rendered = execute(ImmutableMultimap.<String, String>of());
+        assertThat(rendered.get("database").get("url").asText()).isEqualTo("jdbc:production");
+        assertThat(rendered.get("database").has("region")).isFalse();
+    }
+
+    @Test
+    public void testSourceIsReadOnceAndResultsAreCached() throws Exception {
+        String first = executeRaw(ImmutableMultimap.of("tags", "eu"));
+        String second = executeRaw(ImmutableMultimap.of("tags", "eu"));
+        executeRaw(ImmutableMultimap.of("tags", "production"));
+        assertThat(second).isEqualTo(first);
+        // rendered from the bytes read by the build
+        assertThat(opened).isEqualTo(1);
+    }
+
+    @Test
+    public void testEditsAreRenderedOnlyOnceLoaded() throws Exception {
+        yml = YML.replace("jdbc:testing", "jdbc:changed");
+        JsonNode rendered = execute(ImmutableMultimap.of("tags", "eu"));
+        assertThat(rendered.get("database").get("url").asText()).isEqualTo("jdbc:testing");
+    }
+
+    @Test
+    public void testPrerenderedSourceIsOnlyRenderedForItsTags() throws Exception {
+        yml = ConstrettoPrerenderer.MARKER + ": [production]\ndatabase:\n  url: jdbc:production\n";
+        factory.reload();
+        JsonNode rendered = execute(ImmutableMultimap.<String, String>of());
+        assertThat(rendered.get("database").get("url").asText()).isEqualTo("jdbc:production");
+        assertThat(rendered.has(ConstrettoPrerenderer.MARKER)).isFalse();
+        try {
+            executeRaw(ImmutableMultimap.of("tags", "eu"));
+            fail("Expected ConfigurationException");
+        } catch (ConfigurationException e) {
+            assertThat(e.getMessage()).contains("pre-rendered for the tags [production]");
+        }
+    }
+
+    @Test
+    public void testReloadedSourceIsRendered() throws Exception {
+        executeRaw(ImmutableMultimap.of("tags", "eu"));
+        yml = YML.replace("jdbc:testing", "jdbc:changed");
+        factory.reload();
+        JsonNode rendered = execute(ImmutableMultimap.of("tags", "eu"));
+        assertThat(rendered.get("database").get("url").asText()).isEqualTo("jdbc:changed");
+    }
+
+    @Test
+    public void testSlowRenderingTimesOut() throws Exception {
+        ConstrettoConfigurationFactory<JsonNode> slow = new ConstrettoConfigurationFactory<JsonNode>(JsonNode.class,
+                null, mapper, "dw", factory.getTagResolver()) {
+            @Override
+            JsonNode resolveTree(Source source, Collection<String> activeTags) throws IOException, ConfigurationException {
+                try {
+                    Thread.sleep(10000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.resolveTree(source, activeTags);
+            }
+        }.withRendering(true);
+        slow.build(new ConstrettoConfigurationProvider(new ConfigurationSourceProvider() {
+            @Override
+            public InputStream open(String path) {
+                return new ByteArrayInputStream(yml.getBytes());
+            }
+        }), "config.yml");
+        task = new ConstrettoRenderTask(slow, ConstrettoRenderTask.DEFAULT_SECRETS, 1024 * 1024, 100);
+        try {
+            executeRaw(ImmutableMultimap.of("tags", "eu"));
+            fail("Expected TimeoutException");
+        } catch (TimeoutException e) {
+            assertThat(e.getMessage()).contains("[eu]");
+        } finally {
+            task.stop();
+        }
+    }
+
+    @Test
+    public void testSourceIsOnlyKeptForRendering() throws Exception {
+        factory.withRendering(false).reload();
+        try {
+            executeRaw(ImmutableMultimap.of("tags", "eu"));
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage()).contains("only kept with tag switching or rendering enabled");
+        }
+    }
+
+    private JsonNode execute(ImmutableMultimap<String, String> parameters) throws Exception {
+        return mapper.readTree(executeRaw(parameters));
+    }
+
+    private String executeRaw(ImmutableMultimap<String, String> parameters) throws Exception {
+        StringWriter output = new StringWriter();
+        task.execute(parameters, new PrintWriter(output));
+        return output.toString();
+    }
+
+}
@@ -0,0 +1,113 @@
+package org.constretto.dropwizard;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import com.google.common.io.ByteStreams;
+import io.dropwizard.configuration.ConfigurationSourceProvider;
+import org.constretto.resolver.ConfigurationContextResolver;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author kjeivers
+ */
+public class ConstrettoSourceFormatTest {
+
+    private static final String YML =
+            "scalar: testVal\n" +
+            ".staging.scalar: stagingVal\n" +
+            "list:\n" +
+            "- .staging:\n" +
+            "  val: str1\n" +
+            "- .testing:\n" +
+            "  val: str2\n" +
+            "- val: \"\\n@staging.val\"\n";
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @Test
+    public void testFormatFromPath() {
+        assertThat(ConstrettoSourceFormat.fromPath("config.yml")).isEqualTo(ConstrettoSourceFormat.YAML);
+        assertThat(ConstrettoSourceFormat.fromPath("/etc/app/config.YAML")).isEqualTo(ConstrettoSourceFormat.YAML);
+        assertThat(ConstrettoSourceFormat.fromPath("config.json")).isEqualTo(ConstrettoSourceFormat.JSON);
+        assertThat(ConstrettoSourceFormat.fromPath("config.smile")).isEqualTo(ConstrettoSourceFormat.SMILE);
+        assertThat(ConstrettoSourceFormat.fromPath("config.cbor")).isEqualTo(ConstrettoSourceFormat.CBOR);
+        assertThat(ConstrettoSourceFormat.fromPath("config")).isNull();
+    }
+
+    @Test
+    public void testFormatFromContent() throws IOException {
+        assertThat(ConstrettoSourceFormat.fromHead(encode(new SmileFactory()), 3)).isEqualTo(ConstrettoSourceFormat.SMILE);
+        assertThat(ConstrettoSourceFormat.fromHead(encode(new CBORFactory()), 3)).isEqualTo(ConstrettoSourceFormat.CBOR);
+        assertThat(ConstrettoSourceFormat.fromHead(YML.getBytes(), 3)).isEqualTo(ConstrettoSourceFormat.YAML);
+        assertThat(ConstrettoSourceFormat.fromHead(new byte[0], 0)).isEqualTo(ConstrettoSourceFormat.YAML);
+    }
+
+    @Test
+    public void testSameResultForAllFormats() throws Exception {
+        JsonNode expected = build("config.yml", YML.getBytes());
+        assertThat(expected.get("scalar").asText()).isEqualTo("stagingVal");
+        assertThat(expected.get("list").size()).isEqualTo(2);
+        assertEquals(expected, build("config.json", encode(new JsonFactory())));
+        assertEquals(expected, build("config.smile", encode(new SmileFactory())));
+        assertEquals(expected, build("config.cbor", encode(new CBORFactory())));
+        // detected from the content
+        assertEquals(expected, build("config", encode(new SmileFactory())));
+        assertEquals(expected, build("config", encode(new CBORFactory())));
+    }
+
+    @Test
+    public void testBinarySourceIsNotRewritten() throws IOException {
+        final byte[] smile = encode(new SmileFactory());
+        ConstrettoConfigurationProvider provider = new ConstrettoConfigurationProvider(new ConfigurationSourceProvider() {
+            @Override
+            public InputStream open(String path) {
+                return new ByteArrayInputStream(smile);
+            }
+        });
+        assertThat(ByteStreams.toByteArray(provider.open("config"))).isEqualTo(smile);
+    }
+
+    private JsonNode build(String path, final byte[] source) throws Exception {
+        ConstrettoConfigurationProvider provider = new ConstrettoConfigurationProvider(new ConfigurationSourceProvider() {
+            @Override
+            public InputStream open(String path) {
+                return new ByteArrayInputStream(source);
+            }
+        });
+        return new ConstrettoConfigurationFactory<>(JsonNode.class, null, mapper, "dw",
+                new ConfigurationContextResolver() {
+                    @Override
+                    public List<String> getTags() {
+                        return Arrays.asList("staging");
+                    }
+                }).build(provider, path);
+    }
+
+    /**
+     * @return The unfiltered YAML source in the format of the factory
+     */
+    private byte[] encode(JsonFactory factory) throws IOException {
+        JsonNode tree = mapper.readTree(new YAMLFactory().createParser(YML));
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (JsonGenerator generator = factory.createGenerator(output)) {
+            mapper.writeTree(generator, tree);
+        }
+        return output.toByteArray();
+    }
+
+}
@@ -0,0 +1,139 @@
+package org.constretto.dropwizard;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteStreams;
+import io.dropwizard.configuration.ConfigurationSourceProvider;
+import io.dropwizard.configuration.SubstitutingSourceProvider;
+import io.dropwizard.configuration.UndefinedEnvironmentVariableException;
+import org.apache.commons.lang3.text.StrLookup;
+import org.apache.commons.lang3.text.StrSubstitutor;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * @author kjeivers
+ */
+public class ConstrettoSubstitutingProviderTest {
+
+    private static final Map<String, String> VARIABLES = ImmutableMap.<String, String>builder()
+            .put("HOST", "db.example.com")
+            .put("TAG", "production")
+            .put("AT_KEY", "@staging.url: x")
+            .put("NESTED", "${HOST}:5432")
+            .put("EMPTY", "")
+            .put("UNICODE", "blåbær")
+            .build();
+
+    private final StrLookup<String> lookup = StrLookup.mapLookup(VARIABLES);
+
+    @Test
+    public void testSameResultAsLayeredProviders() throws Exception {
+        assertSameAsLayered("url: ${HOST}\n@production.url: other\n");
+        assertSameAsLayered("url: ${UNDEFINED}\n");
+        assertSameAsLayered("url: ${UNDEFINED:-localhost}\nport: ${PORT:-}\n");
+        assertSameAsLayered("url: ${HOST:-localhost}\n");
+        assertSameAsLayered("escaped: $${HOST}\ndouble: $$${HOST}\ndollars: $$ and $ alone\n");
+        assertSameAsLayered("url: ${NESTED}\n");
+        assertSameAsLayered("@${TAG}.url: tagged\n${AT_KEY}\n- @staging:\n  val: ${EMPTY}\n");
+        assertSameAsLayered("name: ${UNICODE} æøå\n");
+        assertSameAsLayered("spanning: ${HOST\n}\nafter: ${HOST}\n");
+        assertSameAsLayered("unclosed: ${HOST");
+        assertSameAsLayered("no newline at the end: ${HOST}");
+        assertSameAsLayered("${EMPTY}");
+        assertSameAsLayered("");
+    }
+
+    @Test
+    public void testLongSource() throws Exception {
+        StringBuilder yml = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            yml.append("key").append(i).append(": ${HOST}-").append(i).append('\n');
+            yml.append("@staging.key").append(i).append(": plain\n");
+        }
+        assertSameAsLayered(yml.toString());
+    }
+
+    @Test
+    public void testUnclosedVariableIsLeftAfterMaxSpan() throws Exception {
+        StringBuilder yml = new StringBuilder("unclosed: ${HOST\n");
+        while (yml.length() < 4 * ConstrettoSubstitutingInputStream.MAX_SPAN) {
+            yml.append("key").append(yml.length()).append(": plain\n");
+        }
+        yml.append("url: ${HOST}\n");
+        String substituted = read(new ConstrettoSubstitutingProvider(provider(yml.toString()), lookup));
+        // the layered providers take the unclosed variable to swallow the rest of the source
+        assertThat(substituted).startsWith("unclosed: ${HOST\n").endsWith("url: db.example.com\n");
+        assertThat(substituted.length()).isEqualTo(yml.length() - "${HOST}".length() + "db.example.com".length());
+    }
+
+    @Test
+    public void testCyclicVariablesFail() throws Exception {
+        StrLookup<String> cyclic = StrLookup.mapLookup(ImmutableMap.of("A", "${B}", "B", "${A}"));
+        try {
+            read(new ConstrettoSubstitutingProvider(provider("a: ${A}\n"), cyclic));
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage()).contains("Infinite loop");
+        }
+    }
+
+    @Test
+    public void testStrictFailsOnUndefinedVariable() throws Exception {
+        try {
+            read(new ConstrettoSubstitutingProvider(provider("a: ${CONSTRETTO_SURELY_UNDEFINED_VARIABLE}\n"), true));
+            fail("Expected UndefinedEnvironmentVariableException");
+        } catch (UndefinedEnvironmentVariableException e) {
+            assertThat(e.getMessage()).contains("CONSTRETTO_SURELY_UNDEFINED_VARIABLE");
+        }
+        assertThat(read(new ConstrettoSubstitutingProvider(provider("a: ${CONSTRETTO_SURELY_UNDEFINED_VARIABLE}\n"), false)))
+                .isEqualTo("a: ${CONSTRETTO_SURELY_UNDEFINED_VARIABLE}\n");
+    }
+
+    @Test
+    public void testSmallReads() throws Exception {
+        String yml = "url: ${HOST}\n@production.url: ${NESTED}\n";
+        ConfigurationSourceProvider oneByteAtATime = new ConfigurationSourceProvider() {
+            @Override
+            public InputStream open(String path) {
+                return new FilterInputStream(new ByteArrayInputStream(yml.getBytes(StandardCharsets.UTF_8))) {
+                    @Override
+                    public int read(byte[] b, int off, int len) throws IOException {
+                        return super.read(b, off, Math.min(len, 1));
+                    }
+                };
+            }
+        };
+        assertThat(read(new ConstrettoSubstitutingProvider(oneByteAtATime, lookup)))
+                .isEqualTo(read(new ConstrettoConfigurationProvider(new SubstitutingSourceProvider(provider(yml), new StrSubstitutor(lookup)))));
+    }
+
+    private void assertSameAsLayered(String yml) throws Exception {
+        String layered = read(new ConstrettoConfigurationProvider(new SubstitutingSourceProvider(provider(yml), new StrSubstitutor(lookup))));
+        assertThat(read(new ConstrettoSubstitutingProvider(provider(yml), lookup))).isEqualTo(layered);
+    }
+
+    private static String read(ConfigurationSourceProvider provider) throws IOException {
+        try (InputStream input = provider.open("config.yml")) {
+            return new String(ByteStreams.toByteArray(input), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static ConfigurationSourceProvider provider(final String yml) {
+        return new ConfigurationSourceProvider() {
+            @Override
+            public InputStream open(String path) {
+                return new ByteArrayInputStream(yml.getBytes(StandardCharsets.UTF_8));
+            }
+        };
+    }
+
+}
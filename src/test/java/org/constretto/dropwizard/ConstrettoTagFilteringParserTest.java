@@ -0,0 +1,102 @@
+package org.constretto.dropwizard;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author kjeivers
+ */
+public class ConstrettoTagFilteringParserTest {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final YAMLFactory yamlFactory = new YAMLFactory();
+
+    @Test
+    public void testTaggedScalarOverridesUntagged() throws IOException {
+        assertThat(filter("scalar: testVal\n.staging.scalar: stagingVal", "staging").toString())
+                .isEqualTo("{\"scalar\":\"stagingVal\"}");
+        assertThat(filter(".staging.scalar: stagingVal\nscalar: testVal", "staging").toString())
+                .isEqualTo("{\"scalar\":\"stagingVal\"}");
+        assertThat(filter(".staging.scalar: stagingVal\nscalar: testVal").toString())
+                .isEqualTo("{\"scalar\":\"testVal\"}");
+    }
+
+    @Test
+    public void testInactiveTaggedStructIsSkipped() throws IOException {
+        assertThat(filter(
+                "struct:\n" +
+                "  val: untagged\n" +
+                "  .staging.nested:\n" +
+                "    - a\n" +
+                "    - b\n" +
+                "  .testing.val: testing\n", "testing").toString())
+                .isEqualTo("{\"struct\":{\"val\":\"testing\"}}");
+    }
+
+    @Test
+    public void testTaggedListElements() throws IOException {
+        String yml =
+                "list:            \n" +
+                "- .staging:      \n" +
+                "  val     : str1 \n" +
+                "- .testing:      \n" +
+                "  val     : str2 \n" +
+                "- .testing.val     : str3_testing \n" +
+                "  .staging.val     : str3_staging \n" +
+                "- .other: value  \n" +
+                "- plain          \n";
+        assertThat(filter(yml, "testing").toString())
+                .isEqualTo("{\"list\":[{\"val\":\"str2\"},{\"val\":\"str3_testing\"},{\".other\":\"value\"},\"plain\"]}");
+    }
+
+    @Test
+    public void testSameResultAsTreeFilter() throws IOException {
+        String yml =
+                "a: 1\n" +
+                ".x.a: 2\n" +
+                "b:\n" +
+                "  .y.c: [1, 2]\n" +
+                "  c: 3\n" +
+                "  list:\n" +
+                "    - .x:\n" +
+                "      nested:\n" +
+                "        - .y:\n" +
+                "          deep: 1\n" +
+                "        - .x.deep: 2\n" +
+                "          deep: 0\n";
+        for (Collection<String> tags : Arrays.<Collection<String>>asList(
+                Collections.<String>emptyList(), Arrays.asList("x"), Arrays.asList("y"), Arrays.asList("x", "y"))) {
+            assertEquals(treeFilter(yml, tags), filter(yml, tags.toArray(new String[tags.size()])));
+        }
+    }
+
+    @Test
+    public void testTaggedKeysAreCounted() throws IOException {
+        ConstrettoTags.Counts counts = new ConstrettoTags.Counts();
+        mapper.readTree(new ConstrettoTagFilteringParser(yamlFactory.createParser(
+                "a: 1\n.x.a: 2\n.y.a: 3\nlist:\n- .x:\n  v: 1\n- .y:\n  v: 2\n"),
+                ConstrettoTags.of(Arrays.asList("x")), counts));
+        assertThat(counts.kept()).isEqualTo(2);
+        assertThat(counts.dropped()).isEqualTo(2);
+    }
+
+    private JsonNode filter(String yml, String... activeTags) throws IOException {
+        return mapper.readTree(new ConstrettoTagFilteringParser(yamlFactory.createParser(yml), Arrays.asList(activeTags)));
+    }
+
+    private JsonNode treeFilter(String yml, Collection<String> activeTags) throws IOException {
+        return new ConstrettoConfigurationFactory<>(JsonNode.class, null, mapper, "", null)
+                .removeInactiveElements(mapper.readTree(yamlFactory.createParser(yml)), activeTags);
+    }
+
+}
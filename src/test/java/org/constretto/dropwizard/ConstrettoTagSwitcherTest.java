@@ -0,0 +1,125 @@
+package org.constretto.dropwizard;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.dropwizard.configuration.ConfigurationException;
+import io.dropwizard.configuration.FileConfigurationSourceProvider;
+import org.constretto.resolver.ConfigurationContextResolver;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.validation.Validation;
+import javax.validation.constraints.NotNull;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * @author kjeivers
+ */
+public class ConstrettoTagSwitcherTest {
+
+    Path file;
+    ConstrettoReloadableConfiguration<TestConfiguration> configuration;
+    ConstrettoConfigurationFactory<TestConfiguration> factory;
+    ConstrettoTagSwitcher switcher;
+    volatile List<String> tags = Arrays.asList("primary");
+
+    @Before
+    public void setup() throws Exception {
+        file = Files.createTempFile("constretto-tags", ".yml");
+        write("scalar: defaultVal\n" +
+                "@primary.scalar: primaryVal\n" +
+                "@standby.scalar: standbyVal\n" +
+                "@broken.scalar: null\n");
+        configuration = new ConstrettoReloadableConfiguration<>();
+        factory = new ConstrettoConfigurationFactory<>(
+                TestConfiguration.class,
+                Validation.buildDefaultValidatorFactory().getValidator(),
+                new ObjectMapper(),
+                "",
+                new ConfigurationContextResolver() {
+                    @Override
+                    public List<String> getTags() {
+                        return tags;
+                    }
+                }).withReloadable(configuration).withTagSwitching(true);
+        factory.build(new ConstrettoConfigurationProvider(new FileConfigurationSourceProvider()), file.toString());
+        switcher = new ConstrettoTagSwitcher(factory, 10);
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        switcher.stop();
+        Files.delete(file);
+    }
+
+    @Test
+    public void testUnchangedTagsAreIgnored() {
+        assertThat(switcher.poll()).isFalse();
+        assertThat(configuration.getSnapshot().getVersion()).isEqualTo(1);
+    }
+
+    @Test
+    public void testChangedTagsAreResolvedWithoutReadingTheSource() throws Exception {
+        // only the source read by the build is used
+        write("scalar: [unreadable\n");
+        tags = Arrays.asList("standby");
+        assertThat(switcher.poll()).isTrue();
+        assertThat(configuration.get().scalar).isEqualTo("standbyVal");
+        assertThat(configuration.getSnapshot().getVersion()).isEqualTo(2);
+        assertThat(factory.getLastTags()).containsOnly("standby");
+
+        tags = Arrays.asList("primary");
+        assertThat(switcher.poll()).isTrue();
+        assertThat(configuration.get().scalar).isEqualTo("primaryVal");
+    }
+
+    @Test
+    public void testInvalidConfigurationIsRejectedOnce() {
+        ConstrettoConfigurationSnapshot<TestConfiguration> previous = configuration.getSnapshot();
+        tags = Arrays.asList("broken");
+        assertThat(switcher.poll()).isFalse();
+        assertThat(switcher.poll()).isFalse();
+        assertThat(configuration.getSnapshot()).isSameAs(previous);
+        assertThat(factory.getLastTags()).containsOnly("primary");
+    }
+
+    @Test
+    public void testReloadedSourceIsUsed() throws IOException, ConfigurationException {
+        switcher.poll();
+        write("scalar: defaultVal\n@standby.scalar: reloadedVal\n");
+        factory.reload();
+        tags = Arrays.asList("standby");
+        assertThat(switcher.poll()).isTrue();
+        assertThat(configuration.get().scalar).isEqualTo("reloadedVal");
+    }
+
+    @Test
+    public void testTagChangeIsPickedUp() throws Exception {
+        switcher.start();
+        tags = Arrays.asList("standby");
+        long deadline = System.currentTimeMillis() + 20000;
+        while (!"standbyVal".equals(configuration.get().scalar) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(configuration.get().scalar).isEqualTo("standbyVal");
+    }
+
+    public static class TestConfiguration {
+        @NotNull
+        @JsonProperty
+        public String scalar;
+    }
+
+    private void write(String content) throws IOException {
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+}
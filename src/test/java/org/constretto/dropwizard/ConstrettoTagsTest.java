@@ -0,0 +1,62 @@
+package org.constretto.dropwizard;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * @author kjeivers
+ */
+public class ConstrettoTagsTest {
+
+    @Test
+    public void testActiveTagsAreFoundInKeys() {
+        ConstrettoTags tags = ConstrettoTags.of(Arrays.asList("staging", "eu"));
+        assertThat(tags.isActive(".staging.url", 1, 8)).isTrue();
+        assertThat(tags.isActive(".eu.url", 1, 3)).isTrue();
+        assertThat(tags.isActive(".production.url", 1, 11)).isFalse();
+        assertThat(tags.isActive(".stagingx.url", 1, 9)).isFalse();
+        assertThat(tags.isActive(".stag.url", 1, 5)).isFalse();
+        assertThat(tags.isActive(".", 1, 1)).isFalse();
+    }
+
+    @Test
+    public void testInternedTagsAreInactiveUntilActivated() {
+        ConstrettoTags tags = ConstrettoTags.of(Arrays.asList("staging"));
+        int production = tags.intern("production");
+        assertThat(tags.intern("production")).isEqualTo(production);
+        assertThat(tags.isActive(".production.", 1, 11)).isFalse();
+        tags.activate(production);
+        assertThat(tags.isActive(".production.", 1, 11)).isTrue();
+        assertThat(tags.name(production)).isEqualTo("production");
+        assertThat(tags.size()).isEqualTo(2);
+    }
+
+    @Test
+    public void testManyTags() {
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            names.add("tag" + i);
+        }
+        ConstrettoTags tags = ConstrettoTags.of(names);
+        assertThat(tags.size()).isEqualTo(1000);
+        for (int i = 0; i < 1000; i++) {
+            String key = ".tag" + i + ".key";
+            assertThat(tags.isActive(key, 1, key.length() - 4)).isTrue();
+            assertThat(tags.name(tags.indexOf(key, 1, key.length() - 4))).isEqualTo("tag" + i);
+        }
+        assertThat(tags.isActive(".tag1000.key", 1, 8)).isFalse();
+    }
+
+    @Test
+    public void testNoActiveTags() {
+        ConstrettoTags tags = ConstrettoTags.of(null);
+        assertThat(tags.size()).isEqualTo(0);
+        assertThat(tags.isActive(".staging.url", 1, 8)).isFalse();
+    }
+
+}